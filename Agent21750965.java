@@ -10,27 +10,58 @@ import hanabAI.State;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Stack;
-import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
 
 public class Agent21750965 implements Agent {
-	// List of the remaining unseen Cards
-	public ArrayList<Card> remainingDeck;
-
-	// Represents the size of the discards pile
-	public int discardsSize;
-	// Represents the size of each fireworks stack
-	public int red;
-	public int yellow;
-	public int green;
-	public int blue;
-	public int white;
+	// Lock-free updaters for the Node statistics shared between threads
+	private static final AtomicLongFieldUpdater<Node> SCORE = AtomicLongFieldUpdater.newUpdater(Node.class, "score");
+	private static final AtomicIntegerFieldUpdater<Node> VISITS = AtomicIntegerFieldUpdater.newUpdater(Node.class, "visits");
+	private static final AtomicIntegerFieldUpdater<Node> AVAILABILITY = AtomicIntegerFieldUpdater.newUpdater(Node.class, "availability");
+	private static final AtomicIntegerFieldUpdater<Node> VIRTUAL_LOSS = AtomicIntegerFieldUpdater.newUpdater(Node.class, "virtualLoss");
+	private static final AtomicLongFieldUpdater<Node> RAVE_SCORE = AtomicLongFieldUpdater.newUpdater(Node.class, "raveScore");
+	private static final AtomicIntegerFieldUpdater<Node> RAVE_VISITS = AtomicIntegerFieldUpdater.newUpdater(Node.class, "raveVisits");
+
+	// Default visits at which RAVE weighs both means equally, 0 for off
+	private static final int RAVE_EQUIVALENCE = 0;
+
+	// Colours indexed by the colour part of a Card code
+	private static final Colour[] COLOURS = Colour.values();
+	// Card code of an empty hand position
+	private static final byte EMPTY = -1;
+	// Mask of all 25 Card codes, bit c for code c
+	private static final int ALL_CODES = (1 << 25) - 1;
+	// Mask of the codes of value 1, one per Colour
+	private static final int ONES = 0x108421;
+	// Action types indexed by the type part of an action id
+	private static final ActionType[] TYPES = ActionType.values();
+	// Action id meaning no Action
+	static final int NO_ACTION = -1;
+	// Interned Actions indexed by action id, for each hand size (built on first use)
+	private static final Action[][] ACTIONS = new Action[6][];
+
+	// Counts of the unseen Cards and what each hand position may hold
+	private Belief belief;
+	// Order of the last State ingested
+	private int ingested;
+	// Actions ingested from the last State, oldest first
+	private Action[] history;
+	// The State following each Action in history
+	private State[] following;
+	// Number of Actions in history
+	private int historySize;
 
 	// Each players card age (n turns held)
 	public int[][] ages;
@@ -49,12 +80,133 @@ public class Agent21750965 implements Agent {
 	private boolean firstAction = true;
 	// GameState containing current game information
 	private GameState gameState;
+	// Number of threads searching in parallel
+	private int threads = 1;
+	// Whether parallel threads share one tree rather than one tree each
+	private boolean sharedTree = false;
+	// Pool running the parallel trees (created on first use)
+	private ForkJoinPool pool;
+	// Seeds each tree's Random
+	private Random rand = new Random();
+	// Whether to carry the tree over to the next decision
+	private boolean reuseTree = true;
+	// Most tree descents made on one determinization
+	private int maxBatch = 8;
+	// Whether to keep searching our chosen Action's subtree between decisions
+	private boolean ponder = false;
+	// Root child of our last Action, kept for the next decision
+	private Node chosenNode;
+	// Tree searched while pondering
+	private MCTStree ponderTree;
+	// Thread pondering between decisions
+	private Thread ponderThread;
+	// Subtree matching the current State, to be searched further
+	private Node reusableRoot;
+	// Chooses the Actions of each rollout
+	private RolloutPolicy rolloutPolicy = new RulePolicy();
+	// Visits at which a child's own and All-Moves-As-First means weigh equally
+	private int raveEquivalence = RAVE_EQUIVALENCE;
+	// Action ids played in the current simulation, for RAVE, one array
+	// per searching thread kept across searches and cleared after use
+	private final ThreadLocal<boolean[]> played = new ThreadLocal<boolean[]>() {
+		protected boolean[] initialValue() {
+			return new boolean[1 << 16];
+		}
+	};
 
 	/**
 	 * Default constructor.
 	 */
 	public Agent21750965() { }
 
+	/**
+	 * Sets the number of threads searching in parallel on each 
+	 * decision. A value of 1 (the default) searches a single tree
+	 * on the calling thread, as required by the tournament rules.
+	 * 
+	 * @param threads the number of threads, e.g. Runtime.availableProcessors()
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Selects between root parallel search (the default), where
+	 * each thread grows its own tree, and tree parallel search, 
+	 * where all threads grow one shared tree using virtual loss.
+	 * 
+	 * @param sharedTree true to search one shared tree
+	 */
+	public void setSharedTree(boolean sharedTree) {
+		this.sharedTree = sharedTree;
+	}
+
+	/**
+	 * Selects whether the tree is kept between decisions (the default).
+	 * When the next State arrives, the node reached from our chosen 
+	 * Action by the Actions the other players actually took becomes the
+	 * root of the next search, keeping its statistics. Tree reuse applies
+	 * to the single tree searches, not to root parallel search.
+	 * 
+	 * @param reuseTree true to keep the tree between decisions
+	 */
+	public void setReuseTree(boolean reuseTree) {
+		this.reuseTree = reuseTree;
+	}
+
+	/**
+	 * Sets the most tree descents made on one determinization of our
+	 * hand. Within that limit, each search sizes its batches so that
+	 * determinizing takes a small share of its time. A value of 1 
+	 * determinizes before every descent.
+	 * 
+	 * @param maxBatch the largest batch, at least 1
+	 */
+	public void setMaxBatch(int maxBatch) {
+		this.maxBatch = Math.max(1, maxBatch);
+	}
+
+	/**
+	 * Enables pondering: after each decision a background thread keeps
+	 * searching the subtree of the chosen Action while the other players
+	 * move, and the tree is kept for the next decision. Pondering applies
+	 * to the single-threaded search, and is off by default since the 
+	 * tournament rules forbid threads.
+	 * 
+	 * @param ponder true to ponder between decisions
+	 */
+	public void setPonder(boolean ponder) {
+		this.ponder = ponder;
+	}
+
+	/**
+	 * Sets the policy choosing the Actions of each rollout, taken
+	 * up by the trees constructed afterwards. The default is a
+	 * RulePolicy. Package-private, as are the policies and the 
+	 * GameState they read, so it is only for code in this package
+	 * such as HanabiBenchmark.
+	 * 
+	 * @param rolloutPolicy the policy, shared by every tree and thread
+	 */
+	void setRolloutPolicy(RolloutPolicy rolloutPolicy) {
+		this.rolloutPolicy = rolloutPolicy;
+	}
+
+	/**
+	 * Sets how long selection leans on the All-Moves-As-First 
+	 * statistics (RAVE). A child's mean score is blended with the 
+	 * mean score of the simulations that played its move later on,
+	 * whose weight falls to a half at the given number of visits 
+	 * and towards none after. Taken up by the trees constructed 
+	 * afterwards. RAVE is off by default.
+	 * 
+	 * @param raveEquivalence the visits at which both means weigh 
+	 * equally, e.g. 50, or 0 to select by UCB alone
+	 */
+	public void setRaveEquivalence(int raveEquivalence) {
+		this.raveEquivalence = Math.max(0, raveEquivalence);
+	}
+
 	/**
 	 * Original author - Tim French.
 	 * 
@@ -64,19 +216,7 @@ public class Agent21750965 implements Agent {
 	 */
 	public void init(State s) {
 		playerCount = s.getPlayers().length;
-		remainingDeck = new ArrayList<Card>(Arrays.asList(Card.getDeck()));
-
-		discardsSize = s.getDiscards().size();
-		red = s.getFirework(Colour.RED).size();
-		yellow = s.getFirework(Colour.YELLOW).size();
-		green = s.getFirework(Colour.GREEN).size();
-		blue = s.getFirework(Colour.BLUE).size();
-		white = s.getFirework(Colour.WHITE).size();
-
-		// Remove discards from remainingDeck
-		for (Card discard : s.getDiscards()) {
-			remainingDeck.remove(discard);
-		}
+		playerIndex = s.getNextPlayer();
 
 		if (playerCount > 3) {
 			handSize = 4;
@@ -89,22 +229,42 @@ public class Agent21750965 implements Agent {
 		values = new int[playerCount][handSize];
 
 		gameState = new GameState(playerCount);
+		belief = new Belief(playerCount, handSize);
+		history = new Action[playerCount];
+		following = new State[playerCount];
 
-		updateGameState(s);
+		// Start from the first State, whose Actions are ingested next
+		State t = s;
 
-		playerIndex = s.getNextPlayer();
+		while (t.getOrder() > 0) {
+			t = t.getPreviousState();
+		}
+
+		gameState.fuse = t.getFuseTokens();
+		gameState.hints = t.getHintTokens();
+
+		for (int i = 0; i < playerCount; i++) {
+			if (i == playerIndex) continue;
+			Card[] hand = t.getHand(i);
+			
+			for (int j = 0; j < handSize; j++) {
+				gameState.setCard(i, j, hand[j]);
+			}
+		}
+
+		ingested = 0;
 		firstAction = false;
 	}
 
 	/**
-	 * Updates the Agent's GameState to reflect the State object.
+	 * Updates the counters of the Agent's GameState to reflect the
+	 * State object, and deals it the Cards unseen by this Agent. The
+	 * hands, hint knowledge, fireworks and discards are kept up to
+	 * date by ingest.
 	 * 
 	 * @param s State of the current game
 	 */
-	@SuppressWarnings("unchecked")
 	public void updateGameState(State s) {
-		gameState.players = s.getPlayers();
-		gameState.discards = s.getDiscards();
 		gameState.fuse = s.getFuseTokens();
 		gameState.order = s.getOrder();
 		gameState.hints = s.getHintTokens();
@@ -112,64 +272,119 @@ public class Agent21750965 implements Agent {
 		gameState.finalAction = s.getFinalActionIndex();
 
 		for (int i = 0; i < playerCount; i++) {
-			gameState.colours[i] = (Colour[]) colours[i].clone();
-			gameState.values[i] = (int[]) values[i].clone();
-			gameState.ages[i] = (int[]) ages[i].clone();
+			for (int j = 0; j < handSize; j++) {
+				gameState.setAge(i, j, ages[i][j]);
+			}
 		}
 
-		for (Colour c : Colour.values()) {
-			gameState.fireworks.put(c, (Stack<Card>) s.getFirework(c).clone());
+		gameState.setDeck(belief.unseen(gameState, playerIndex));
+		gameState.setPossible(belief.possible);
+	}
+
+	/**
+	 * Takes in the Actions made since the last State ingested, 
+	 * including our own, oldest first. Only the chain of previous
+	 * States is walked; each Action is then applied once as a delta.
+	 * 
+	 * @param s the current State
+	 * @throws IllegalActionException if an Action in the State is malformed
+	 */
+	private void ingest(State s) throws IllegalActionException {
+		historySize = s.getOrder() - ingested;
+		State t = s;
+
+		for (int i = historySize - 1; i >= 0; i--) {
+			history[i] = t.getPreviousAction();
+			following[i] = t;
+			t = t.getPreviousState();
 		}
 
-		for (int i = 0; i < playerCount; i++) {
-			if (i == playerIndex) continue;
-			gameState.hands[i] = s.getHand(i);
+		for (int i = 0; i < historySize; i++) {
+			ingest(history[i], following[i]);
 		}
+
+		ingested = s.getOrder();
 	}
 
 	/**
-	 * Original author - Tim French.
+	 * Applies an Action to the hint arrays, the Belief and the 
+	 * GameState. A Card played or discarded by another player is
+	 * known from their hand in the GameState, and is replaced by 
+	 * the Card they drew.
 	 * 
-	 * Updates the colours and values arrays with any
-	 * Action information in the previous state actions.
-	 * 
-	 * @param s the State object to inspect
+	 * @param a the Action taken
+	 * @param after the State following the Action
+	 * @throws IllegalActionException if the Action is malformed
 	 */
-	public void getHints(State s) {
-		try {
-			State t = (State) s.clone();
-			Action a;
-			ActionType type;
+	private void ingest(Action a, State after) throws IllegalActionException {
+		ActionType type = a.getType();
 
-			for (int i = 0; i < Math.min(playerCount - 1, s.getOrder()); i++) {
-				a = t.getPreviousAction();
-				type = a.getType();
+		if (type == ActionType.HINT_COLOUR || type == ActionType.HINT_VALUE) {
+			int receiver = a.getHintReceiver();
+			boolean[] hints = a.getHintedCards();
 
-				if (type == ActionType.HINT_COLOUR || type == ActionType.HINT_VALUE) {
-					boolean[] hints = a.getHintedCards();
+			for (int j = 0; j < handSize; j++) {
+				if (hints[j]) {
+					if (type == ActionType.HINT_COLOUR)
+						colours[receiver][j] = a.getColour();
+					else
+						values[receiver][j] = a.getValue();
 
-					for (int j = 0; j < handSize; j++) {
-						if (hints[j]) {
-							if (type == ActionType.HINT_COLOUR)
-								colours[a.getHintReceiver()][j] = a.getColour();
-							else
-								values[a.getHintReceiver()][j] = a.getValue();
-						}
-					}
+					gameState.setKnowledge(receiver, j, colours[receiver][j], values[receiver][j]);
 				}
+			}
+		}
+		else {
+			int player = a.getPlayer();
+			int slot = a.getCard();
+			int c = player == playerIndex ? ownCard(a, after) : gameState.card(player, slot);
+
+			// A play that burns no fuse token reaches its firework
+			if (type == ActionType.PLAY && after.getFuseTokens() == gameState.fuse) {
+				gameState.setFirework(COLOURS[colourOf(c)], gameState.height(colourOf(c)) + 1);
+			}
+			else {
+				gameState.addDiscard(c);
+			}
 
-				if (type == ActionType.DISCARD || type == ActionType.PLAY) {
-					ages[a.getPlayer()][a.getCard()] = 0;
-					colours[a.getPlayer()][a.getCard()] = null;
-					values[a.getPlayer()][a.getCard()] = 0;
-				}
+			belief.reveal(c);
+			ages[player][slot] = 0;
+			colours[player][slot] = null;
+			values[player][slot] = 0;
+			gameState.setKnowledge(player, slot, null, 0);
 
-				t = t.getPreviousState();
+			if (player != playerIndex) {
+				gameState.setCard(player, slot, after.getHand(player)[slot]);
 			}
-		} 
-		catch (IllegalActionException e) {
-			e.printStackTrace();
 		}
+
+		belief.observe(a);
+		gameState.fuse = after.getFuseTokens();
+		gameState.hints = after.getHintTokens();
+	}
+
+	/**
+	 * Returns the Card this Agent played or discarded, 
+	 * found on top of the pile it reached.
+	 * 
+	 * @param a our Action
+	 * @param after the State following the Action
+	 * @return the Card code
+	 */
+	private int ownCard(Action a, State after) {
+		if (a.getType() == ActionType.DISCARD || after.getFuseTokens() < gameState.fuse) {
+			return encode(after.getDiscards().peek());
+		}
+
+		for (Colour colour : COLOURS) {
+			Stack<Card> firework = after.getFirework(colour);
+
+			if (firework.size() > gameState.height(colour.ordinal())) {
+				return encode(firework.peek());
+			}
+		}
+
+		return EMPTY;
 	}
 
 	/**
@@ -187,15 +402,21 @@ public class Agent21750965 implements Agent {
 			init(s);
 		}
 
-		getHints(s);
+		try {
+			ingest(s);
+		}
+		catch (IllegalActionException e) {
+			e.printStackTrace();
+		}
+
 		updateHandAges();
-		updateDeckList(s);
-		Stack<Card> generatedDeck = generateDeck(s);
 		updateGameState(s);
 		GameState gsClone = (GameState) gameState.clone();
 
 		try {
-			return findBestMove(gsClone, generatedDeck);
+			stopPondering();
+			reusableRoot = reroot();
+			return findBestMove(gsClone);
 		} 
 		catch (IllegalActionException e) {
 			e.printStackTrace();
@@ -205,193 +426,443 @@ public class Agent21750965 implements Agent {
 	}
 
 	/**
-	 * Generates and returns a Stack containing all unseen Cards
-	 * for the given State s.
-	 * 
-	 * @param s the current State
-	 * @return a Stack of all unseen Cards in the given State
+	 * Updates the ages of all currently 
+	 * held cards in all hands.
+	 */
+	private void updateHandAges() {
+		for (int i = 0; i < playerCount; i++) {
+			for (int j = 0; j < handSize; j++) {
+				ages[i][j]++;
+			}
+		}
+
+	}
+
+	/**
+	 * Begins the IS-UCT procedure and returns the
+	 * best Action calculated from the algorithm. 
+	 * The Action is ingested with the next State.
+	 *   
+	 * @param gameState the current GameState, whose deck holds the unseen Cards
+	 * @return the best Action for the given State
+	 * @throws IllegalActionException if an illegal Action is applied to the GameState
 	 */
-	@SuppressWarnings("unchecked")
-	private Stack<Card> generateDeck(State s) {
-		ArrayList<Card> deckListClone = (ArrayList<Card>) remainingDeck.clone();
+	public Action findBestMove(GameState gameState) throws IllegalActionException {
+		Action bestAction;
+		
+		chosenNode = null;
 		
-		for (int i = 1; i < playerCount; i++) {
-			int currentPlayer = (playerIndex + i) % playerCount;
+		if (threads > 1 && sharedTree) {
+			MCTStree mctsTree = new MCTStree(gameState, new Random(rand.nextLong()), reusableRoot);
+			Node best = mctsTree.ISUCT(getPool(), threads);
+			bestAction = best.action;
 			
-			for (Card c : s.getHand(currentPlayer)) {
-				deckListClone.remove(c);
-			}
+			if (reuseTree) chosenNode = best;
+		}
+		else if (threads > 1) {
+			bestAction = rootParallelSearch(gameState);
+		}
+		else {
+			MCTStree mctsTree = new MCTStree(gameState, new Random(rand.nextLong()), reusableRoot);
+			Node best = mctsTree.ISUCT();
+			bestAction = best.action;
+			
+			if (reuseTree || ponder) chosenNode = best;
+			if (ponder) startPondering(mctsTree, best);
 		}
 		
-		Stack<Card> generatedDeck = new Stack<Card>();
-		generatedDeck.addAll(deckListClone);
-		return generatedDeck;
+		reusableRoot = null;
+		return bestAction;
 	}
 
 	/**
-	 * Updates the deckList ArrayList containing all
-	 * unaccounted for cards (excluding those held by opponents)
+	 * Root parallel IS-UCT. Searches one independent MCTStree per 
+	 * thread, each with its own determinizations and Random, then 
+	 * merges the visits and scores of matching root children before
+	 * choosing the Action with the highest average score.
 	 * 
-	 * @param s the current State
+	 * @param gameState the current GameState, whose deck holds the unseen Cards
+	 * @return the best Action over all trees
+	 * @throws IllegalActionException if an illegal Action is applied to the GameState
 	 */
-	private void updateDeckList(State s) {
-		Stack<Card> currentPile;
-		int currentPileSize;
-
-		// If the size of discards has changed this rotation
-		if (discardsSize != s.getDiscards().size()) {
-			currentPile = s.getDiscards();
-			currentPileSize = currentPile.size();
-			int discardsAdded = currentPileSize - discardsSize;
-
-			for (int j = 0; j < discardsAdded; j++) {
-				remainingDeck.remove(currentPile.get(currentPileSize - 1 - j));
-			}
-
-			discardsSize = s.getDiscards().size();
+	private Action rootParallelSearch(GameState gameState) throws IllegalActionException {
+		List<Callable<MCTStree>> tasks = new ArrayList<Callable<MCTStree>>();
+		
+		for (int i = 0; i < threads; i++) {
+			final MCTStree mctsTree = new MCTStree(gameState, new Random(rand.nextLong()), null);
+			
+			tasks.add(new Callable<MCTStree>() {
+				public MCTStree call() throws IllegalActionException {
+					mctsTree.ISUCT();
+					return mctsTree;
+				}
+			});
 		}
-
-		// If the size of red fireworks has changed this rotation
-		if (red != s.getFirework(Colour.RED).size()) {
-			currentPile = s.getFirework(Colour.RED);
-			currentPileSize = currentPile.size();
-			int redAdded = currentPileSize - red;
-
-			for (int i = 0; i < redAdded; i++) {
-				remainingDeck.remove(currentPile.get(currentPileSize - 1 - i));
+		
+		// Root children of every tree, merged by Action
+		Map<Integer, Node> merged = new HashMap<Integer, Node>();
+		
+		try {
+			for (Future<MCTStree> result : getPool().invokeAll(tasks)) {
+				for (Node child : result.get().root.children) {
+					Node total = merged.get(child.move);
+					
+					if (total == null) {
+						total = new Node(null, child.move, child.action);
+						merged.put(child.move, total);
+					}
+					
+					total.score += child.score;
+					total.visits += child.visits;
+				}
 			}
-			
-			red = currentPileSize;
+		} 
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} 
+		catch (ExecutionException e) {
+			e.printStackTrace();
 		}
-
-		// If the size of yellow fireworks has changed this rotation
-		if (yellow != s.getFirework(Colour.YELLOW).size()) {
-			currentPile = s.getFirework(Colour.YELLOW);
-			currentPileSize = currentPile.size();
-			int yellowAdded = currentPileSize - yellow;
-
-			for (int i = 0; i < yellowAdded; i++) {
-				remainingDeck.remove(currentPile.get(currentPileSize - 1 - i));
+		
+		Action bestAction = null;
+		double bestScore = Integer.MIN_VALUE;
+		
+		for (Node total : merged.values()) {
+			if (total.getUCB(0) > bestScore) {
+				bestScore = total.getUCB(0);
+				bestAction = total.action;
 			}
-			
-			yellow = currentPileSize;
 		}
+		
+		return bestAction;
+	}
 
-		// If the size of green fireworks has changed this rotation
-		if (green != s.getFirework(Colour.GREEN).size()) {
-			currentPile = s.getFirework(Colour.GREEN);
-			currentPileSize = currentPile.size();
-			int greenAdded = currentPileSize - green;
-
-			for (int i = 0; i < greenAdded; i++) {
-				remainingDeck.remove(currentPile.get(currentPileSize - 1 - i));
+	/**
+	 * Starts a background thread searching the subtree of our chosen
+	 * Action until the next decision.
+	 * 
+	 * @param tree the tree just searched
+	 * @param chosen the root child of our chosen Action
+	 */
+	private void startPondering(final MCTStree tree, final Node chosen) {
+		ponderTree = tree;
+		ponderThread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					tree.ponder(chosen);
+				}
+				catch (IllegalActionException e) {
+					e.printStackTrace();
+				}
 			}
+		});
+		ponderThread.setDaemon(true);
+		ponderThread.start();
+	}
 
-			green = currentPileSize;
+	/**
+	 * Stops pondering, if a thread is pondering.
+	 */
+	private void stopPondering() {
+		if (ponderThread == null) return;
+		
+		ponderTree.stopped = true;
+		
+		try {
+			ponderThread.join();
 		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+		ponderThread = null;
+		ponderTree = null;
+	}
 
-		// If the size of blue fireworks has changed this rotation
-		if (blue != s.getFirework(Colour.BLUE).size()) {
-			currentPile = s.getFirework(Colour.BLUE);
-			currentPileSize = currentPile.size();
-			int blueAdded = currentPileSize - blue;
-
-			for (int i = 0; i < blueAdded; i++) {
-				remainingDeck.remove(currentPile.get(currentPileSize - 1 - i));
+	/**
+	 * Follows the Actions the other players have taken since our
+	 * last Action, as ingested, down the subtree kept from the last
+	 * decision. The rest of the old tree is left to the garbage 
+	 * collector.
+	 * 
+	 * @return the Node reached, to become the next root, or null if 
+	 * no tree was kept or the tree lacks an Action taken
+	 * @throws IllegalActionException if an ingested Action is malformed
+	 */
+	private Node reroot() throws IllegalActionException {
+		Node node = chosenNode;
+		chosenNode = null;
+		
+		if (node == null) return null;
+		
+		for (int i = 0; i < historySize; i++) {
+			Action a = history[i];
+			if (a.getPlayer() == playerIndex) continue;
+			
+			Node match = null;
+			int id = actionId(a);
+			
+			for (Node child : node.children) {
+				if (child.move == id) {
+					match = child;
+					break;
+				}
 			}
+			
+			if (match == null) return null;
+			node = match;
+		}
+		
+		return node;
+	}
 
-			blue = currentPileSize;
+	/**
+	 * Returns the pool used for parallel search, 
+	 * resizing it if the thread count has changed.
+	 * 
+	 * @return a ForkJoinPool with one worker per thread
+	 */
+	private ForkJoinPool getPool() {
+		if (pool == null || pool.getParallelism() != threads) {
+			if (pool != null) pool.shutdown();
+			pool = new ForkJoinPool(threads);
 		}
+		
+		return pool;
+	}
 
-		// If the size of white fireworks has changed this rotation
-		if (white != s.getFirework(Colour.WHITE).size()) {
-			currentPile = s.getFirework(Colour.WHITE);
-			currentPileSize = currentPile.size();
-			int whiteAdded = currentPileSize - white;
+	/**
+	 * Returns the id of a PLAY or DISCARD Action. An action id packs
+	 * the ActionType ordinal (bits 0-1), the hand position or hint 
+	 * receiver (2-4), the Colour ordinal or value hinted (5-7), the 
+	 * hinted hand positions as a bitmask (8-12) and the player (13-15).
+	 * 
+	 * @param player the player acting
+	 * @param type PLAY or DISCARD
+	 * @param slot the hand position
+	 * @return the action id
+	 */
+	static int cardAction(int player, ActionType type, int slot) {
+		return player << 13 | slot << 2 | type.ordinal();
+	}
 
-			for (int i = 0; i < whiteAdded; i++) {
-				remainingDeck.remove(currentPile.get(currentPileSize - 1 - i));
-			}
+	/**
+	 * Returns the id of a hint Action.
+	 * 
+	 * @param player the player acting
+	 * @param type HINT_COLOUR or HINT_VALUE
+	 * @param receiver the player receiving the hint
+	 * @param hinted the Colour ordinal or value hinted
+	 * @param mask the hinted hand positions, bit i for position i
+	 * @return the action id
+	 */
+	static int hintAction(int player, ActionType type, int receiver, int hinted, int mask) {
+		return player << 13 | mask << 8 | hinted << 5 | receiver << 2 | type.ordinal();
+	}
 
-			white = currentPileSize;
-		}
+	/**
+	 * Returns the ActionType of an action id.
+	 * 
+	 * @param id the action id
+	 * @return the ActionType
+	 */
+	static ActionType typeOf(int id) {
+		return TYPES[id & 3];
 	}
 
 	/**
-	 * Updates the ages of all currently 
-	 * held cards in all hands.
+	 * Returns the player acting in an action id.
+	 * 
+	 * @param id the action id
+	 * @return the player index
 	 */
-	private void updateHandAges() {
-		for (int i = 0; i < playerCount; i++) {
-			for (int j = 0; j < handSize; j++) {
-				ages[i][j]++;
-			}
-		}
+	static int playerOf(int id) {
+		return id >> 13;
+	}
 
+	/**
+	 * Returns the hand position of a PLAY or DISCARD id, 
+	 * or the hint receiver of a hint id.
+	 * 
+	 * @param id the action id
+	 * @return the hand position or hint receiver
+	 */
+	static int targetOf(int id) {
+		return (id >> 2) & 7;
 	}
 
 	/**
-	 * Begins the IS-UCT procedure and returns the
-	 * best Action calculated from the algorithm. 
-	 * The determined Action will be used to update 
-	 * the colours and values arrays.
-	 *   
-	 * @param gameState the current GameState
-	 * @param deck the deck of unseen Cards
-	 * @return the best Action for the given State
-	 * @throws IllegalActionException if an illegal Action is applied to the GameState
+	 * Returns the Colour ordinal or value of a hint id.
+	 * 
+	 * @param id the action id
+	 * @return the Colour ordinal or value hinted
 	 */
-	public Action findBestMove(GameState gameState, Stack<Card> deck) throws IllegalActionException {
-		MCTStree mctsTree = new MCTStree(gameState, deck);
-		Node bestNode = mctsTree.ISUCT();
+	static int hintedOf(int id) {
+		return (id >> 5) & 7;
+	}
 
-		// Use the information from our action to update our hint arrays
-		if (bestNode.action.getType() == ActionType.DISCARD || bestNode.action.getType() == ActionType.PLAY) {
-			ages[playerIndex][bestNode.action.getCard()] = 0;
-			colours[playerIndex][bestNode.action.getCard()] = null;
-			values[playerIndex][bestNode.action.getCard()] = 0;
-		}
+	/**
+	 * Returns the hinted hand positions of a hint id.
+	 * 
+	 * @param id the action id
+	 * @return the bitmask of hinted positions
+	 */
+	static int maskOf(int id) {
+		return (id >> 8) & 31;
+	}
 
-		// Use the information from our action to update our hint arrays
-		if (bestNode.action.getType() == ActionType.HINT_COLOUR || bestNode.action.getType() == ActionType.HINT_VALUE) {
-			boolean[] hints = bestNode.action.getHintedCards();
+	/**
+	 * Returns the id of an Action, so that equal Actions 
+	 * from different States and trees can be matched.
+	 * 
+	 * @param a the Action
+	 * @return the action id
+	 * @throws IllegalActionException if the Action is malformed
+	 */
+	static int actionId(Action a) throws IllegalActionException {
+		switch (a.getType()) {
+		case PLAY:
+		case DISCARD:
+			return cardAction(a.getPlayer(), a.getType(), a.getCard());
+		default:
+			boolean[] hinted = a.getHintedCards();
+			int mask = 0;
+			
+			for (int i = 0; i < hinted.length; i++) {
+				if (hinted[i]) mask |= 1 << i;
+			}
+			
+			int hint = a.getType() == ActionType.HINT_COLOUR ? a.getColour().ordinal() : a.getValue();
+			return hintAction(a.getPlayer(), a.getType(), a.getHintReceiver(), hint, mask);
+		}
+	}
 
-			for (int j = 0; j < hints.length; j++) {
-				if (hints[j]) {
-					if (bestNode.action.getType() == ActionType.HINT_COLOUR)
-						colours[bestNode.action.getHintReceiver()][j] = bestNode.action.getColour();
-					else
-						values[bestNode.action.getHintReceiver()][j] = bestNode.action.getValue();
+	/**
+	 * Returns the interned Actions for the given hand size, indexed
+	 * by action id, building them on first use. Every Action of up 
+	 * to five players is built once, so that searches never 
+	 * construct Actions.
+	 * 
+	 * @param handSize the number of Cards in a hand
+	 * @return the Actions, null at unused ids
+	 */
+	static synchronized Action[] actions(int handSize) {
+		if (ACTIONS[handSize] != null) return ACTIONS[handSize];
+		
+		Action[] actions = new Action[1 << 16];
+		
+		try {
+			for (int p = 0; p < 5; p++) {
+				for (int i = 0; i < handSize; i++) {
+					actions[cardAction(p, ActionType.PLAY, i)] = new Action(p, "Agent21750965", ActionType.PLAY, i);
+					actions[cardAction(p, ActionType.DISCARD, i)] = new Action(p, "Agent21750965", ActionType.DISCARD, i);
+				}
+				
+				for (int r = 0; r < 5; r++) {
+					if (r == p) continue;
+					
+					for (int mask = 0; mask < 1 << handSize; mask++) {
+						boolean[] hinted = new boolean[handSize];
+						
+						for (int i = 0; i < handSize; i++) {
+							hinted[i] = (mask & 1 << i) != 0;
+						}
+						
+						for (int h = 0; h < 5; h++) {
+							actions[hintAction(p, ActionType.HINT_COLOUR, r, h, mask)] = new Action(p, "Agent21750965", ActionType.HINT_COLOUR, r, hinted, COLOURS[h]);
+							actions[hintAction(p, ActionType.HINT_VALUE, r, h + 1, mask)] = new Action(p, "Agent21750965", ActionType.HINT_VALUE, r, hinted, h + 1);
+						}
+					}
 				}
 			}
 		}
+		catch (IllegalActionException e) {
+			e.printStackTrace();
+		}
 		
-		return bestNode.action;
+		ACTIONS[handSize] = actions;
+		return actions;
 	}
 
 	/**
-	 * Returns the Agent's name.
+	 * Encodes a Card as a byte: its Colour ordinal * 5 + value - 1.
 	 * 
-	 * @return Agent21750965 - the Agent's name
+	 * @param c the Card to encode, or null
+	 * @return the Card code, or EMPTY for null
 	 */
-	public String toString() {
-		return "Agent21750965";
+	static byte encode(Card c) {
+		return c == null ? EMPTY : (byte) (c.getColour().ordinal() * 5 + c.getValue() - 1);
+	}
+
+	/**
+	 * Returns the Colour ordinal of a Card code.
+	 * 
+	 * @param code the Card code
+	 * @return the Colour ordinal
+	 */
+	static int colourOf(int code) {
+		return code / 5;
+	}
+
+	/**
+	 * Returns the value of a Card code.
+	 * 
+	 * @param code the Card code
+	 * @return the value from 1 to 5
+	 */
+	static int valueOf(int code) {
+		return code % 5 + 1;
+	}
+
+	/**
+	 * Returns a copy of a GameState whose deck is the given Cards.
+	 * 
+	 * @param gs the GameState to copy
+	 * @param deck the Cards of the new deck
+	 * @return the copy
+	 */
+	static GameState withDeck(GameState gs, Collection<Card> deck) {
+		GameState s = (GameState) gs.clone();
+		s.setDeck(deck);
+		return s;
+	}
+
+	/**
+	 * Returns the Agent's name.
+	 * 
+	 * @return Agent21750965 - the Agent's name
+	 */
+	public String toString() {
+		return "Agent21750965";
 	}
 	
 	class MCTStree {
 		
 		// Exploration constant
 	    private final double CONST = Math.sqrt(2);
-	    // Computational time budget
+	    // Longest computational time budget (ms)
 	    private final int TIME = 800;
-	    // Generated deck from the root Node's GameState
-	    public Stack<Card> deck;
+	    // Longest time spent pondering between decisions (ms)
+	    private final int PONDER_TIME = 10000;
 	    // Root Node of the tree
 	    public Node root;
-	    // Root state of the tree
+	    // Root state of the tree, whose deck holds the unseen Cards
 	    public GameState gameState;
 	    
-	    public Random rand = new Random();
+	    // Source of randomness for this tree's determinizations
+	    public Random rand;
+	    // Largest share of search time spent determinizing, sizing batches
+	    private final double SAMPLE_SHARE = 0.05;
+	    // Number of IS-MCTS iterations completed on this tree
+	    public AtomicLong iterations = new AtomicLong();
+	    // Number of determinizations made for this tree
+	    public AtomicLong determinizations = new AtomicLong();
+	    // Set to stop a search before its time is up
+	    public volatile boolean stopped = false;
+	    // Chooses the Actions of each rollout
+	    private final RolloutPolicy policy;
+	    // Visits at which RAVE weighs both means equally, 0 for none
+	    private final int equivalence;
 		
 	    /**
 	     * Default Constructor.
@@ -399,12 +870,97 @@ public class Agent21750965 implements Agent {
 	     * @param gs the root GameState of the tree
 	     * @param deck a deck of Cards that have not been accounted for
 	     */
-		@SuppressWarnings("unchecked")
 		public MCTStree(GameState gs, Stack<Card> deck) {
-			this.deck = (Stack<Card>) deck.clone();
+			this(gs, deck, new Random());
+		}
+		
+	    /**
+	     * Constructs a tree whose determinizations and expansions
+	     * are drawn from the given Random.
+	     * 
+	     * @param gs the root GameState of the tree
+	     * @param deck a deck of Cards that have not been accounted for
+	     * @param rand the Random used by this tree
+	     */
+		public MCTStree(GameState gs, Stack<Card> deck, Random rand) {
+			this(gs, deck, rand, null);
+		}
+		
+	    /**
+	     * Constructs a tree continuing from a subtree of an earlier 
+	     * tree, dealing its determinizations from the given deck.
+	     * 
+	     * @param gs the root GameState of the tree
+	     * @param deck a deck of Cards that have not been accounted for
+	     * @param rand the Random used by this tree
+	     * @param root the Node matching gs, or null to start afresh
+	     */
+		public MCTStree(GameState gs, Stack<Card> deck, Random rand, Node root) {
+			this(withDeck(gs, deck), rand, root);
+		}
+		
+	    /**
+	     * Constructs a tree continuing from a subtree of an earlier 
+	     * tree, whose statistics are kept.
+	     * 
+	     * @param gs the root GameState of the tree, whose deck holds
+	     * the Cards that have not been accounted for
+	     * @param rand the Random used by this tree
+	     * @param root the Node matching gs, or null to start afresh
+	     */
+		public MCTStree(GameState gs, Random rand, Node root) {
+			this.rand = rand;
+			policy = rolloutPolicy;
+			equivalence = raveEquivalence;
 			gameState = (GameState) gs.clone();
-			root = new Node(null, null);
-			root.populatePossibleMoves(gameState);
+			
+			if (root == null) {
+				root = new Node(null, NO_ACTION, null);
+				root.populatePossibleMoves(gameState);
+			}
+			else {
+				adopt(root);
+			}
+			
+			root.parent = null;
+			this.root = root;
+		}
+		
+		/**
+		 * Fits a Node expanded in a determinization to the root 
+		 * GameState. Children whose Actions are not legal here are
+		 * removed, since they could be chosen, and the untried moves
+		 * are replaced by the root's legal moves without a child.
+		 * 
+		 * @param n the Node to become the root
+		 */
+		private void adopt(Node n) {
+			// Our own hand is unknown, so Actions are tested on a determinization
+			GameState d = (GameState) gameState.clone();
+			d.determinePlayerHand();
+			
+			ArrayList<Node> illegal = new ArrayList<Node>();
+			
+			for (Node child : n.children) {
+				if (!d.legalAction(child.move)) illegal.add(child);
+			}
+			
+			n.children.removeAll(illegal);
+			n.possibleCount = 0;
+			
+			Node fresh = new Node(null, NO_ACTION, null);
+			fresh.populatePossibleMoves(gameState);
+			
+			for (int i = 0; i < fresh.possibleCount; i++) {
+				int move = fresh.possibleMoves[i];
+				boolean tried = false;
+				
+				for (Node child : n.children) {
+					if (child.move == move) tried = true;
+				}
+				
+				if (!tried) n.addMove(move);
+			}
 		}
 		
 		/**
@@ -414,31 +970,162 @@ public class Agent21750965 implements Agent {
 		 * @return the child Node of root containing the optimal Action
 		 * @throws IllegalActionException if an illegal Action is applied to the GameState
 		 */
-		@SuppressWarnings("unchecked")
 		public Node ISUCT() throws IllegalActionException {
+			search(rand, root, new TimeManager(this, TIME));
+			return bestRootChild();
+		}
+		
+		/**
+		 * Performs tree parallel IS-MCTS+UCB. Every worker runs the
+		 * select, expand, rollout and backup phases on this tree
+		 * with its own determinizations and Random, while virtual
+		 * loss spreads the workers over different paths.
+		 * 
+		 * @param pool the pool running the workers
+		 * @param threads the number of workers
+		 * @return the child Node of root containing the optimal Action
+		 * @throws IllegalActionException if an illegal Action is applied to the GameState
+		 */
+		public Node ISUCT(ForkJoinPool pool, int threads) throws IllegalActionException {
+			List<Callable<Void>> workers = new ArrayList<Callable<Void>>();
+			final TimeManager time = new TimeManager(this, TIME);
 			
-			// Computational time budget
-			long finishTime = System.currentTimeMillis() + TIME;
-
-			Node bestChild = null;
-			double bestScore = Integer.MIN_VALUE;
+			for (int i = 0; i < threads; i++) {
+				final Random workerRand = new Random(rand.nextLong());
+				
+				workers.add(new Callable<Void>() {
+					public Void call() throws IllegalActionException {
+						search(workerRand, root, time);
+						return null;
+					}
+				});
+			}
+			
+			try {
+				for (Future<Void> worker : pool.invokeAll(workers)) {
+					worker.get();
+				}
+			} 
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} 
+			catch (ExecutionException e) {
+				e.printStackTrace();
+			}
+			
+			return bestRootChild();
+		}
+		
+		/**
+		 * Searches the subtree of a root child, applying its Action 
+		 * first in every determinization, until stopped or until
+		 * PONDER_TIME has passed.
+		 * 
+		 * @param child the root child to search below
+		 * @throws IllegalActionException if an illegal Action is applied to the GameState
+		 */
+		public void ponder(Node child) throws IllegalActionException {
+			search(rand, child, new TimeManager(PONDER_TIME));
+		}
+		
+		/**
+		 * Runs IS-MCTS+UCB iterations from the root or one of its
+		 * children until stopped or until the TimeManager ends the
+		 * search, which it is asked every CHECK_INTERVAL iterations.
+		 * 
+		 * Iterations are batched on one determinization of our hand,
+		 * undoing each descent and reshuffling the deck in between.
+		 * The batch size is the measured cost of a determinization
+		 * over SAMPLE_SHARE of the measured cost of a descent, 
+		 * between 1 and maxBatch.
+		 * 
+		 * @param rand the Random for determinizations and expansions
+		 * @param start the root, or the root child to search below
+		 * @param time the TimeManager of this search
+		 * @throws IllegalActionException if an illegal Action is applied to the GameState
+		 */
+		private void search(Random rand, Node start, TimeManager time) throws IllegalActionException {
+			
+			// The GameState this thread determinizes and plays on
+			GameState d = (GameState) gameState.clone();
+			d.rand = rand;
+			
+			// Iterations completed by this thread since the last check
+			long count = 0;
+			// Descents left on the current determinization
+			int batch = 0;
+			// Average nanoseconds of a determinization and of a descent
+			double sampleCost = 0;
+			double descentCost = 0;
+			long sampled = 0;
+			// The action ids of each simulation, for RAVE
+			boolean[] played = equivalence > 0 ? Agent21750965.this.played.get() : null;
 			
 			// While within computational budget
-			while (System.currentTimeMillis() < finishTime) {
-				// Randomly choose a determination
-				GameState d = (GameState) gameState.clone();
-				d.deck = (Stack<Card>) deck.clone();
-				d.determinePlayerHand();
-				Collections.shuffle(d.deck);
+			while (!stopped) {
+				if (count == TimeManager.CHECK_INTERVAL) {
+					boolean done = time.done(iterations.addAndGet(count));
+					count = 0;
+					if (done) break;
+				}
+				
+				long sampleStart = 0;
+				
+				if (batch == 0) {
+					// Randomly choose a determination
+					sampleStart = System.nanoTime();
+					d.copyFrom(gameState);
+					d.determinePlayerHand();
+					sampled++;
+				}
+				else {
+					d.undoTo(0);
+				}
+				
+				d.shuffleDeck(rand);
+				long descentStart = batch == 0 ? System.nanoTime() : 0;
+				
+				// Start below the root by playing the child's Action,
+				// counting the root in the virtual loss backup removes
+				if (start != root) {
+					VIRTUAL_LOSS.incrementAndGet(root);
+					d.apply(start.move);
+				}
 				
-				// Tree policy
-				Result<Node, GameState> nd = select(root, d);
-				int moveScore = rollout(nd.d);
+				// Tree policy, then a rollout left in the undo log
+				// for RAVE until the next descent undoes it
+				Result<Node, GameState> nd = select(start, d, rand);
+				int depth = d.depth();
+				int moveScore = playout(d);
+				if (played != null) amaf(nd.n, d, depth, moveScore, played);
 				backup(nd.n, moveScore);
-
+				count++;
+				
+				if (batch == 0) {
+					// Time the first descent of each batch only
+					long descentEnd = System.nanoTime();
+					double weight = sampled < 16 ? 1.0 / sampled : 1.0 / 16;
+					sampleCost += weight * (descentStart - sampleStart - sampleCost);
+					descentCost += weight * (descentEnd - descentStart - descentCost);
+					batch = (int) Math.max(1, Math.min(maxBatch, sampleCost / (SAMPLE_SHARE * descentCost)));
+				}
+				
+				batch--;
 			}
 			
-			// find highest scoring child (Action) from root
+			iterations.addAndGet(count);
+			determinizations.addAndGet(sampled);
+		}
+		
+		/**
+		 * Finds the highest scoring child (Action) from root.
+		 * 
+		 * @return the child Node of root with the best average score
+		 */
+		private Node bestRootChild() {
+			Node bestChild = null;
+			double bestScore = Integer.MIN_VALUE;
+			
 			for (Node child : root.children) {
 				if (child.getUCB(0) > bestScore) {
 					bestScore = child.getUCB(0);
@@ -451,93 +1138,170 @@ public class Agent21750965 implements Agent {
 
 		/**
 		 * The back-propagation phase of IS-UCT. Updates the score 
-		 * and number of visits for each Node in the traversal.
+		 * and number of visits for each Node in the traversal, and
+		 * removes the virtual loss added on the way down.
 		 * 
 		 * @param currentNode the final Node in the tree traversal
 		 * @param moveScore the score of the current tree traversal
 		 */
 		private void backup(Node currentNode, int moveScore) {
 			while (currentNode != null) {
-				currentNode.score += moveScore;
-				currentNode.visits++;
+				SCORE.addAndGet(currentNode, moveScore);
+				VISITS.incrementAndGet(currentNode);
+				VIRTUAL_LOSS.decrementAndGet(currentNode);
 				currentNode = currentNode.parent;
 			}
 		}
 
 		/**
-		 * The simulation phase of IS-MCTS+UCB. Determines an Action
-		 * to play in the current state according to a sequential
-		 * decision tree.
+		 * Credits the score of a simulation, All-Moves-As-First, to 
+		 * the children of each Node on the traversal whose move was 
+		 * played at or after that Node, in the tree or the rollout.
+		 * Action ids carry the player, so only the moves of the player
+		 * choosing at a Node can match its children.
+		 * 
+		 * @param leaf the last Node of the traversal
+		 * @param d the GameState at the end of the simulation
+		 * @param depth the number of Actions applied down to leaf
+		 * @param score the score of the simulation
+		 * @param played the action ids marked played, all false on 
+		 * entry and left so on return
+		 */
+		private void amaf(Node leaf, GameState d, int depth, int score, boolean[] played) {
+			int end = d.depth();
+			int j = end;
+			
+			for (Node n = leaf; n != null; n = n.parent, depth--) {
+				// Mark the moves from this Node's depth on
+				while (j > depth) {
+					played[d.applied(--j)] = true;
+				}
+				
+				for (Node child : n.children) {
+					if (played[child.move]) {
+						RAVE_SCORE.addAndGet(child, score);
+						RAVE_VISITS.incrementAndGet(child);
+					}
+				}
+			}
+			
+			// Clear only the ids marked
+			while (j < end) {
+				played[d.applied(j++)] = false;
+			}
+		}
+
+		/**
+		 * The simulation phase of IS-MCTS+UCB. Plays the Actions the
+		 * rollout policy chooses until the game ends. The simulation
+		 * is played on d in place and undone afterwards.
 		 * 
 		 * @param d the GameState for simulation
 		 * @return the integer score of the end state of the simulation
 		 * @throws IllegalActionException if an illegal Action is applied to the GameState
 		 */
-		private int rollout(GameState d) throws IllegalActionException {
-			GameState gameStateClone = (GameState) d.clone();
-			
-			// Code pinched from Tim French
-			while (!gameStateClone.gameOver()) {
-				Action a = gameStateClone.playKnown();
-				if (a == null) a = gameStateClone.discardKnown();
-				if (a == null) a = gameStateClone.hintPlayable();
-				if (a == null) a = gameStateClone.hintMostCommon();
-				if (a == null) a = gameStateClone.discardOldest();
-				gameStateClone = gameStateClone.nextState(a);
+		int rollout(GameState d) throws IllegalActionException {
+			int start = d.depth();
+			int score = playout(d);
+			d.undoTo(start);
+			return score;
+		}
+
+		/**
+		 * Plays the Actions the rollout policy chooses until the game
+		 * ends, leaving them applied to d. Should the policy find no 
+		 * Action, the oldest Card is discarded, or else the most 
+		 * common value hinted, or else the first Card held played.
+		 * 
+		 * @param d the GameState for simulation
+		 * @return the integer score of the end state of the simulation
+		 */
+		private int playout(GameState d) {
+			while (!d.gameOver()) {
+				int a = policy.choose(d);
+				
+				if (a == NO_ACTION) a = d.discardOldest();
+				if (a == NO_ACTION) a = d.hintMostCommon();
+				for (int i = 0; a == NO_ACTION && i < d.handSize; i++) {
+					if (d.card(d.nextPlayer, i) != EMPTY) a = cardAction(d.nextPlayer, ActionType.PLAY, i);
+				}
+				d.apply(a);
 			}
 			
-			return gameStateClone.getScore();
+			return d.getScore();
 		}
 
 		/**
 		 * The expansion stage of IS-MCTS+UCB. Adds a child Node to 
 		 * Node n that contains a legal move given a GameState d.
+		 * Expansion is locked on n, so concurrent workers never 
+		 * take the same untried move.
 		 * 
 		 * @param n the parent node to expand
 		 * @param d the current GameState
-		 * @return
+		 * @param rand the Random choosing the untried move
+		 * @return the new child and its GameState, or null if n
+		 * has no untried moves that are legal in d
 		 * @throws IllegalActionException if an illegal Action is applied to the GameState
 		 */
-		private Result<Node, GameState> expand(Node n, GameState d) throws IllegalActionException {
-			ArrayList<Action> legalMoves = new ArrayList<Action>();
-			
-			for (Action a: n.possibleMoves) {
-				if (d.legalAction(a)) legalMoves.add(a);
+		private Result<Node, GameState> expand(Node n, GameState d, Random rand) throws IllegalActionException {
+			synchronized (n) {
+				int legal = 0;
+				
+				for (int i = 0; i < n.possibleCount; i++) {
+					if (d.legalAction(n.possibleMoves[i])) legal++;
+				}
+				
+				if (legal == 0) return null;
+				
+				// Choose an unplayed move from this state uniformly at random
+				// and apply it to the current GameState
+				int choice = rand.nextInt(legal);
+				int move = NO_ACTION;
+				
+				for (int i = 0; move == NO_ACTION; i++) {
+					if (d.legalAction(n.possibleMoves[i]) && choice-- == 0) {
+						move = n.possibleMoves[i];
+						n.removeMove(i);
+					}
+				}
+				
+				d.apply(move);
+				
+				// Created and add new child n' to n, carrying 
+				// the virtual loss of this traversal
+				Node c = new Node(n, move, d.actions[move]);
+				c.virtualLoss = 1;
+				c.populatePossibleMoves(d);
+				n.children.add(c);
+				
+				return new Result<Node, GameState>(c, d);
 			}
-			
-			// Choose an unplayed move from this state uniformly at random
-			// and apply it to the current GameState
-			Action action = legalMoves.get(rand.nextInt(legalMoves.size()));
-			n.possibleMoves.remove(action);
-			d = d.nextState(action);
-			
-			// Created and add new child n' to n
-			Node c = new Node(n, action);
-			c.populatePossibleMoves(d);
-			n.children.add(c);
-			
-			return new Result<Node, GameState>(c, d);
 		}
 
 		/**
-		 * Traverses the tree.
+		 * Traverses the tree, adding a virtual loss to 
+		 * each Node on the path.
 		 * 
 		 * @param currentNode the root Node of the tree
+		 * @param d the determinized GameState
+		 * @param rand the Random choosing untried moves
 		 * @return the Node and GameState pair of the current traversal
 		 * @throws IllegalActionException if an illegal Action is applied to the GameState
 		 */
-		private Result<Node, GameState> select(Node n, GameState d) throws IllegalActionException {
+		private Result<Node, GameState> select(Node n, GameState d, Random rand) throws IllegalActionException {
+			VIRTUAL_LOSS.incrementAndGet(n);
+			
 			while (!d.gameOver()) {
-				if (n.hasMoves(d)) {
-					return expand(n, d);
-				}
-				else {
-					for (Node c : n.children) {
-						if (d.legalAction(c.action)) c.availability++;
-					}
-					n = bestChild(n, d);
-					d = d.nextState(n.action);
+				Result<Node, GameState> expanded = expand(n, d, rand);
+				if (expanded != null) return expanded;
+				
+				for (Node c : n.children) {
+					if (d.legalAction(c.move)) AVAILABILITY.incrementAndGet(c);
 				}
+				n = bestChild(n, d);
+				VIRTUAL_LOSS.incrementAndGet(n);
+				d.apply(n.move);
 			}
 			
 			return new Result<Node, GameState>(n, d);
@@ -545,7 +1309,8 @@ public class Agent21750965 implements Agent {
 
 		/**
 		 * Calculates and returns the child Node 
-		 * of n with the highest UCB.
+		 * of n with the highest UCB, blended with
+		 * the RAVE statistics.
 		 * 
 		 * @param n the Node whose children to inspect
 		 * @param d the current GameState
@@ -560,8 +1325,8 @@ public class Agent21750965 implements Agent {
 			for (Node child : n.children) {
 				// Skip children with actions that can't 
 				// be played on the current state 
-				if (!d.legalAction(child.action)) continue;
-				currentUCB = child.getUCB(CONST);
+				if (!d.legalAction(child.move)) continue;
+				currentUCB = child.getRAVE(CONST, equivalence);
 				
 				if (currentUCB > highestUCB) {
 					highestUCB = currentUCB;
@@ -576,7 +1341,147 @@ public class Agent21750965 implements Agent {
 	}
 	
 	/**
-	 * Represents a Node in the MCTS tree.
+	 * Decides when a search ends. A decision's budget depends on the
+	 * game phase: positions with few legal moves get a share of TIME,
+	 * and so do quiet positions, leaving the whole of TIME for the last
+	 * fuse token and the last round. The search also ends early once
+	 * the root child that would be chosen is the most visited by more
+	 * than the iterations the rest of the budget could give another.
+	 * The clock is read with System.nanoTime every CHECK_INTERVAL 
+	 * iterations rather than every iteration.
+	 */
+	class TimeManager {
+		
+		// Iterations between checks of the clock
+		static final int CHECK_INTERVAL = 64;
+		// Legal root moves from which a decision gets the whole budget
+		private final int FULL_MOVES = 10;
+		// Smallest share of the budget, unless the move is forced
+		private final double MIN_SHARE = 0.25;
+		// Share of the budget for a position that is not critical
+		private final double QUIET_SHARE = 0.8;
+		
+		// Times the search started and must end (System.nanoTime)
+		private final long start;
+		private final long deadline;
+		// The tree's root, or null when the search may not end early
+		private final Node root;
+		// A determinization of the root GameState, only read
+		private final GameState position;
+		
+		/**
+		 * Constructs a TimeManager for a fixed budget, without
+		 * ending early.
+		 * 
+		 * @param budget the budget in milliseconds
+		 */
+		public TimeManager(int budget) {
+			start = System.nanoTime();
+			deadline = start + budget * 1000000L;
+			root = null;
+			position = null;
+		}
+		
+		/**
+		 * Constructs a TimeManager for a decision on the root of
+		 * the given tree, budgeted from its phase.
+		 * 
+		 * @param tree the tree to be searched
+		 * @param budget the longest budget in milliseconds
+		 */
+		public TimeManager(MCTStree tree, int budget) {
+			start = System.nanoTime();
+			root = tree.root;
+			
+			// Our own hand is unknown, so Actions are tested on a determinization.
+			// Every determinization agrees on the root's legal moves, which
+			// also reflect the hints left: none rules out hints, eight discards.
+			position = (GameState) tree.gameState.clone();
+			position.determinePlayerHand();
+			
+			int moves = untried();
+			
+			for (Node child : root.children) {
+				if (position.legalAction(child.move)) moves++;
+			}
+			
+			double share = Math.max(MIN_SHARE, Math.min(1, moves / (double) FULL_MOVES));
+			
+			// A misplay on the last fuse token, or a move in the last round, 
+			// decides the game's score more than any other move
+			boolean critical = position.fuse == 1 || position.deckSize <= position.playerCount;
+			if (!critical) share *= QUIET_SHARE;
+			
+			// A forced move needs one check's worth of iterations
+			if (moves <= 1) share = 0;
+			
+			deadline = start + (long) (budget * share * 1000000L);
+		}
+		
+		/**
+		 * Returns true if the search should end.
+		 * 
+		 * @param iterations the iterations the tree has completed
+		 * @return true once the budget is spent, or the root child 
+		 * that would be chosen can no longer be overtaken
+		 */
+		public boolean done(long iterations) {
+			long now = System.nanoTime();
+			
+			if (now >= deadline) return true;
+			if (root == null) return false;
+			
+			// A move not yet tried could still be the best
+			if (untried() > 0) return false;
+			
+			// Iterations left at the rate so far
+			long remaining = iterations * (deadline - now) / Math.max(1, now - start);
+			
+			Node best = null;
+			int mostVisits = 0;
+			int secondVisits = 0;
+			double bestScore = Integer.MIN_VALUE;
+			
+			for (Node child : root.children) {
+				if (child.getUCB(0) > bestScore) {
+					bestScore = child.getUCB(0);
+					best = child;
+				}
+				
+				if (child.visits > mostVisits) {
+					secondVisits = mostVisits;
+					mostVisits = child.visits;
+				}
+				else if (child.visits > secondVisits) {
+					secondVisits = child.visits;
+				}
+			}
+			
+			return best != null && best.visits == mostVisits && mostVisits - secondVisits > remaining;
+		}
+		
+		/**
+		 * Returns the number of legal root moves without a child.
+		 * 
+		 * @return the number of untried root moves
+		 */
+		private int untried() {
+			int moves = 0;
+			
+			synchronized (root) {
+				for (int i = 0; i < root.possibleCount; i++) {
+					if (position.legalAction(root.possibleMoves[i])) moves++;
+				}
+			}
+			
+			return moves;
+		}
+	}
+	
+	/**
+	 * Represents a Node in the MCTS tree. The statistics are
+	 * updated through the atomic field updaters so that several
+	 * workers can share the tree.
 	 * 
 	 * @author Mark Boon
 	 */
@@ -585,31 +1490,68 @@ public class Agent21750965 implements Agent {
 		// Parent node of this gameState
 		public Node parent;
 		// List of Nodes representing tried moves
-		public ArrayList<Node> children;
-		// List of all untried moves
-		public ArrayList<Action> possibleMoves;
-		// The action resulting in this gameState
+		public CopyOnWriteArrayList<Node> children;
+		// Action ids of all untried moves, the first possibleCount
+		// in use (guarded by this Node)
+		public int[] possibleMoves;
+		public int possibleCount = 0;
+		// The action id and interned Action resulting in this gameState
+		public int move;
 		public Action action;
 		// Total MCTS score for this Node
-		public double score = 0;
+		public volatile long score = 0;
 		// Total number of Node visits
-		public int visits = 0;
+		public volatile int visits = 0;
 		// Total availability of children
-		public int availability = 1;
+		public volatile int availability = 1;
+		// Number of traversals currently passing through this Node
+		public volatile int virtualLoss = 0;
+		// Total score and number of the simulations that played this
+		// Node's move at or after its parent (All-Moves-As-First)
+		public volatile long raveScore = 0;
+		public volatile int raveVisits = 0;
 
 		/**
 		 * Constructs the Node with a parent Node, and the Action 
 		 * that resulted in this Node's creation. 
 		 * 
 		 * @param parent parent Node of this Node (null if root).
+		 * @param move the action id corresponding to the GameState.
 		 * @param action the Action corresponding to the GameState.
 		 */
-		public Node(Node parent, Action action) {
+		public Node(Node parent, int move, Action action) {
+			this.move = move;
 			this.action = action;
 			this.parent = parent;
 
-			children = new ArrayList<Node>();
-			possibleMoves = new ArrayList<Action>();		
+			children = new CopyOnWriteArrayList<Node>();
+			possibleMoves = new int[16];		
+		}
+
+		/**
+		 * Adds an untried move, unless it is already present.
+		 * 
+		 * @param move the action id
+		 */
+		public void addMove(int move) {
+			for (int i = 0; i < possibleCount; i++) {
+				if (possibleMoves[i] == move) return;
+			}
+			
+			if (possibleCount == possibleMoves.length) {
+				possibleMoves = Arrays.copyOf(possibleMoves, possibleCount * 2);
+			}
+			
+			possibleMoves[possibleCount++] = move;
+		}
+
+		/**
+		 * Removes an untried move, moving the last one into its place.
+		 * 
+		 * @param i the index of the move in possibleMoves
+		 */
+		public void removeMove(int i) {
+			possibleMoves[i] = possibleMoves[--possibleCount];
 		}
 
 		/**
@@ -627,196 +1569,132 @@ public class Agent21750965 implements Agent {
 			int playerIndex = gameState.nextPlayer;
 			int handSize = gameState.handSize;
 			
-			try {
-				for (int i = 0; i < handSize; i++) {
-					possibleMoves.add(new Action(playerIndex, "Agent21750965", ActionType.PLAY, i));
-					
-					if (gameState.hints != 8) {
-						possibleMoves.add(new Action(playerIndex, "Agent21750965", ActionType.DISCARD, i));
-					}
-
-				}
+			for (int i = 0; i < handSize; i++) {
+				addMove(cardAction(playerIndex, ActionType.PLAY, i));
 				
-				// Adds hint Actions for playable cards
-				if (gameState.hints > 0) {
-					for (int i = 1; i < gameState.playerCount; i++) {
-						int hintee = (playerIndex + i) % gameState.playerCount;
-						Card[] hinteeHand = gameState.hands[hintee];
-
-						for (int j = 0; j < handSize; j++) {
-							Card c = hinteeHand[j];
-							
-							if (c != null && c.getValue() == gameState.playable(c.getColour())) {
-								if (gameState.values[hintee][j] == 0) {
-									boolean[] val = new boolean[hinteeHand.length];
-
-									for (int k = 0; k < val.length; k++) {
-										if (hinteeHand[k] == null) continue;
-										val[k] = c.getValue() == hinteeHand[k].getValue();
-									}
-									
-									possibleMoves.add(new Action(playerIndex, "Agent21750965", ActionType.HINT_VALUE, hintee, val, c.getValue()));
-								} 
-								else if (gameState.colours[hintee][j] == null) {
-									boolean[] col = new boolean[hinteeHand.length];
-
-									for (int k = 0; k < col.length; k++) {
-										if (hinteeHand[k] == null) continue;
-										col[k] = c.getColour().equals(hinteeHand[k].getColour());
-									}
-									
-									possibleMoves.add(new Action(playerIndex, "Agent21750965", ActionType.HINT_COLOUR, hintee, col, c.getColour()));
-								}
-							}
-						}
-					}
+				if (gameState.hints != 8) {
+					addMove(cardAction(playerIndex, ActionType.DISCARD, i));
+				}
 
-					int mostCommon = -1;
-					int bestHintee = (playerIndex + 1) % gameState.playerCount;
-					boolean colour = true;
-					Colour cKey = null;
-					int vKey = -1;
+			}
+			
+			// Adds hint Actions for playable cards
+			if (gameState.hints > 0) {
+				for (int i = 1; i < gameState.playerCount; i++) {
+					int hintee = (playerIndex + i) % gameState.playerCount;
 
-					for (int i = 1; i < gameState.playerCount; i++) {
-						int hintee = (gameState.nextPlayer + i) % gameState.playerCount;
-						Card[] currentHand = gameState.hands[hintee];
+					for (int j = 0; j < handSize; j++) {
+						int c = gameState.card(hintee, j);
 						
-						// Stores the number of cards sharing Colour
-						Map<Colour, Integer> col = new HashMap<Colour, Integer>();
-						// Stores the number of unhinted cards sharing value
-						Map<Integer, Integer> val = new HashMap<Integer, Integer>();
-
-						for (int j = 0; j < handSize; j++) {
-							Card c = currentHand[j];
-							if (c == null) continue;
-							
-							Colour colourKey = c.getColour();
-							int valueKey = c.getValue();
-
-							// check colour hasn't already been hinted
-							if (gameState.colours[hintee][j] == null) {
-								if (col.containsKey(colourKey)) {
-									col.put(colourKey, col.get(colourKey) + 1);
-								} else {
-									col.put(colourKey, 1);
-								}
-							}
-
-							// check value hasn't already been hinted
-							if (gameState.values[hintee][j] == 0) {
-								if (val.containsKey(valueKey)) {
-									val.put(valueKey, val.get(valueKey) + 1);
-								} else {
-									val.put(valueKey, 1);
-								}
-							}
-						}
-
-						for (Entry<Colour, Integer> c : col.entrySet()) {
-							if (mostCommon < c.getValue()) {
-								cKey = c.getKey();
-								bestHintee = hintee;
-								mostCommon = c.getValue();
-							}
-						}
-
-						for (Entry<Integer, Integer> v : val.entrySet()) {
-							if (mostCommon < v.getValue()) {
-								colour = false;
-								vKey = v.getKey();
-								bestHintee = hintee;
-								mostCommon = v.getValue();
+						if (c != EMPTY && valueOf(c) == gameState.playable(colourOf(c))) {
+							if (gameState.knownValue(hintee, j) == 0) {
+								addMove(gameState.valueHint(hintee, valueOf(c)));
+							} 
+							else if (gameState.knownColour(hintee, j) == -1) {
+								addMove(gameState.colourHint(hintee, colourOf(c)));
 							}
 						}
 					}
-					if (colour && cKey != null) {
-						boolean[] results = new boolean[gameState.values[playerIndex].length];
-						Card[] bestHand = gameState.hands[bestHintee];
-
-						for (int k = 0; k < gameState.values[playerIndex].length; k++) {
-							if (bestHand[k] == null) continue;
-							results[k] = cKey.equals(bestHand[k].getColour());
-						}
-						
-						possibleMoves.add(new Action(playerIndex, "Agent21750965", ActionType.HINT_COLOUR, bestHintee, results, cKey));
-					} 
-					else if (vKey != -1) {
-						boolean[] results = new boolean[gameState.values[playerIndex].length];
-						Card[] bestHand = gameState.hands[bestHintee];
-
-						for (int k = 0; k < gameState.values[playerIndex].length; k++) {
-							if (bestHand[k] == null) continue;
-							results[k] = (vKey == bestHand[k].getValue());
-						}
-						
-						possibleMoves.add(new Action(playerIndex, "Agent21750965", ActionType.HINT_VALUE, bestHintee, results, vKey));
-					}
 				}
-			} 
-			catch (IllegalActionException e) {
-				e.printStackTrace();
+
+				int mostCommon = gameState.hintMostCommon();
+				if (mostCommon != NO_ACTION) addMove(mostCommon);
 			}
 		}
 
 		/**
 		 * Calculates and returns the Upper Confidence Bound for this Node.
+		 * Traversals still in progress count as visits scoring zero,
+		 * steering other workers away from this Node meanwhile.
 		 * 
 		 * @param coefficient - The exploration coefficient.
 		 * @return the double UCB value for this Node.
 		 */
 		public double getUCB(double coefficient) {
-			return ((score / visits) + (coefficient * Math.sqrt(2 * Math.log(this.availability) / visits)));
+			int n = visits + virtualLoss;
+			return (((double) score / n) + (coefficient * Math.sqrt(2 * Math.log(this.availability) / n)));
 		}
 
 		/**
-		 * Checks if the possibleMoves list contains any
-		 * Action that is legal given the current GameState d
+		 * Calculates the Upper Confidence Bound for this Node with its
+		 * mean score blended with its All-Moves-As-First mean. The
+		 * blend weight of the latter is sqrt(k / (3n + k)) for n visits
+		 * and equivalence k, a half when n is k.
 		 * 
-		 * @param d the current GameState
-		 * @return boolean true if legal Actions exist, false otherwise
-		 * @throws IllegalActionException if an illegal Action is applied to the GameState
+		 * @param coefficient the exploration coefficient
+		 * @param equivalence the visits at which both means weigh equally
+		 * @return the blended UCB value for this Node
 		 */
-		public boolean hasMoves(GameState d) throws IllegalActionException {
-			for (Action a : possibleMoves) {
-				if (d.legalAction(a)) return true;
+		public double getRAVE(double coefficient, int equivalence) {
+			int n = visits + virtualLoss;
+			int m = raveVisits;
+			double mean = (double) score / n;
+			
+			if (m > 0 && equivalence > 0) {
+				double beta = Math.sqrt(equivalence / (3.0 * n + equivalence));
+				mean += beta * ((double) raveScore / m - mean);
 			}
 			
-			return false;
+			return mean + (coefficient * Math.sqrt(2 * Math.log(this.availability) / n));
 		}
 	}
 	
 	/**
 	 * Original author - Tim French
 	 * 
-	 * Represents the state of a game of Hanabi.
+	 * Represents the state of a game of Hanabi. Cards are encoded as
+	 * bytes (see encode) and the deck, hands, hint knowledge, ages,
+	 * fireworks and discards are packed into a single byte array,
+	 * so a clone is one array copy.
 	 * 
 	 * @author Mark Boon
 	 */
 	class GameState implements Cloneable {
+
+		// Offsets of each section of the data array
+		static final int DECK = 0;
+		static final int HANDS = 50;
+		static final int KNOWLEDGE = 75;
+		static final int AGES = 100;
+		static final int FIREWORKS = 125;
+		static final int DISCARDS = 130;
+		static final int COLOUR_MASKS = 155;
+		static final int VALUE_MASKS = 180;
+		static final int SIZE = 205;
 		
-		// The deck of cards for this determinization
-		public Stack<Card> deck;
+		// Undo log frame: action id, overwritten hand data, old counters
+		static final int FRAME = 3;
+
+		// The deck (top card last), each hand, the hint knowledge and
+		// age of each card in hand, the height of each firework, the
+		// number of each card discarded, and for each hand and each 
+		// Colour and value, the bitmask of the positions holding it
+		public byte[] data;
+		// The number of cards left in the deck for this determinization
+		public int deckSize;
+		// Frames recorded by apply, most recent last
+		private int[] undoLog;
+		// The number of ints used in undoLog
+		private int undoSize;
 		// The number of players in the game
 		public int playerCount;
 		// The number of cards in each player's hand
 		public int handSize;
-		// The number of turns Cards have been held for each player
-		public int[][] ages;
-		// The available Colour hint information for each player
-		public Colour[][] colours;
-		// The available value hint information for each player
-		public int[][] values;
-		
+		// Interned Actions indexed by action id
+		public Action[] actions;
+		// Scratch counts of the unhinted Cards of each Colour and value,
+		// allocated on first use by each clone
+		private int[] colourCounts;
+		private int[] valueCounts;
+		// Samples the hidden hand, allocated on first use by each clone
+		private HandSampler sampler;
+		// Codes each hand position may hold by the hints so far, or null
+		// to go by the hint knowledge alone. Replaced rather than
+		// modified, so clones share it
+		public int[] possible;
+
 		public Random rand = new Random();
 
-		/** The name of each of the players in the game **/
-		public String[] players;
-		/** The stack of cards that have been discarded, or incorrectly played **/
-		public Stack<Card> discards;
-		/** For each colour, the cards making up that firework so far **/
-		public Map<Colour, Stack<Card>> fireworks;
-		/** The hand of each player **/
-		public Card[][] hands;
 		/** The order of this state in the game **/
 		public int order = 0;
 		/** The number of hints remaining **/
@@ -837,256 +1715,433 @@ public class Agent21750965 implements Agent {
 		 **/
 		public GameState(int playerCount) {
 			this.playerCount = playerCount;
-			fireworks = new HashMap<Colour, Stack<Card>>();
-			hands = new Card[playerCount][playerCount > 3 ? 4 : 5];
-			handSize = hands[0].length;
-			deck = new Stack<Card>();
-			ages = new int[playerCount][handSize];
-			values = new int[playerCount][handSize];
-			colours = new Colour[playerCount][handSize];
+			handSize = playerCount > 3 ? 4 : 5;
+			actions = actions(handSize);
+			data = new byte[SIZE];
+			Arrays.fill(data, HANDS, KNOWLEDGE, EMPTY);
 		}
 
 		/**
-		 * Determines a possible matching for the Agent's 
-		 * hand, given the deck of unseen cards and the current
-		 * hint information available.
+		 * Returns the code of the Card in a player's hand.
+		 * 
+		 * @param player the player holding the Card
+		 * @param slot the position of the Card in the hand
+		 * @return the Card code, or EMPTY
 		 */
-		public void determinePlayerHand() {
-			// Flags if we need to perform complex assignment
-			boolean complexAssign = false;
-			// The resulting player hand
-			Card[] playerHand = new Card[handSize];
-			// LinkedList representing slots in the player's hand
-			LinkedList<CardSlot> cardSlots = new LinkedList<CardSlot>();
-			// The list of all possible Cards in all slots
-			ArrayList<Card> totalPossibilities = new ArrayList<Card>();
+		public int card(int player, int slot) {
+			return data[HANDS + player * handSize + slot];
+		}
 
-			for (int i = 0; i < handSize; i++) {
-				cardSlots.add(new CardSlot(i));
+		/**
+		 * Places a Card in a player's hand.
+		 * 
+		 * @param player the player holding the Card
+		 * @param slot the position of the Card in the hand
+		 * @param c the Card, or null for an empty slot
+		 */
+		public void setCard(int player, int slot, Card c) {
+			place(player, slot, encode(c));
+		}
 
-				// Remove any cards that are determined from full hint information
-				if (colours[nextPlayer][i] != null && values[nextPlayer][i] != 0) {
-					playerHand[i] = new Card(colours[nextPlayer][i], values[nextPlayer][i]);
-					cardSlots.removeLast();
-					deck.remove(playerHand[i]);
-				}
-			}
+		/**
+		 * Places a Card code in a hand position, keeping the 
+		 * Colour and value bitmasks of the hand up to date.
+		 * 
+		 * @param player the player holding the Card
+		 * @param slot the position of the Card in the hand
+		 * @param c the Card code, or EMPTY
+		 */
+		private void place(int player, int slot, int c) {
+			int index = HANDS + player * handSize + slot;
+			int old = data[index];
+			int bit = 1 << slot;
 			
-			for (Card c : deck) {
-				for (CardSlot cs : cardSlots) {
-					if (c.getColour().equals(colours[nextPlayer][cs.index])) {
-						cs.possibleCardsList.add(c);
-						cs.possibleCardsSet.add(c);
-						totalPossibilities.add(c);
-					}
-					else if (values[nextPlayer][cs.index] == c.getValue()) {
-						cs.possibleCardsList.add(c);
-						cs.possibleCardsSet.add(c);
-						totalPossibilities.add(c);
-					}
-					else if (colours[nextPlayer][cs.index] == null && values[nextPlayer][cs.index] == 0) {
-						cs.possibleCardsList.add(c);
-						cs.possibleCardsSet.add(c);
-						totalPossibilities.add(c);
-					}
-				}
+			if (old != EMPTY) {
+				data[COLOUR_MASKS + player * 5 + colourOf(old)] &= ~bit;
+				data[VALUE_MASKS + player * 5 + valueOf(old) - 1] &= ~bit;
 			}
 			
-			for (CardSlot cs : cardSlots) {
-				// This handles the edge case that we hold a null
-				if (cs.possibleCardsSet.size() == 0) {
-					cs.assigned = true;
-				}
-				
-				// Check if we need complex assignment 
-				// by using the pigeon-hole principle
-				if (!cs.assigned && cs.possibleCardsList.size() < handSize) {
-					complexAssign = true;
-				}
+			if (c != EMPTY) {
+				data[COLOUR_MASKS + player * 5 + colourOf(c)] |= bit;
+				data[VALUE_MASKS + player * 5 + valueOf(c) - 1] |= bit;
 			}
 			
-			if (!complexAssign) {
-				// Iterate through cardSlots and
-				// assign cards at random.
-				for (CardSlot cs : cardSlots) {
-					if (cs.assigned) continue;
-					Card c = cs.possibleCardsList.get(rand.nextInt((cs.possibleCardsList.size())));
-					
-					for (CardSlot clean : cardSlots) {
-						clean.possibleCardsList.remove(c);
-					}
-					
-					playerHand[cs.index] = c;
-				}
+			data[index] = (byte) c;
+		}
+
+		/**
+		 * Returns the Colour hinted for a Card in a player's hand.
+		 * Knowledge is packed as the value in the low three bits and
+		 * the Colour ordinal plus one in the next three.
+		 * 
+		 * @param player the player holding the Card
+		 * @param slot the position of the Card in the hand
+		 * @return the hinted Colour ordinal, or -1 if unknown
+		 */
+		public int knownColour(int player, int slot) {
+			return (data[KNOWLEDGE + player * handSize + slot] >> 3) - 1;
+		}
+
+		/**
+		 * Returns the value hinted for a Card in a player's hand.
+		 * 
+		 * @param player the player holding the Card
+		 * @param slot the position of the Card in the hand
+		 * @return the hinted value, or 0 if unknown
+		 */
+		public int knownValue(int player, int slot) {
+			return data[KNOWLEDGE + player * handSize + slot] & 7;
+		}
+
+		/**
+		 * Sets the hint knowledge of a Card in a player's hand.
+		 * 
+		 * @param player the player holding the Card
+		 * @param slot the position of the Card in the hand
+		 * @param colour the hinted Colour, or null if unknown
+		 * @param value the hinted value, or 0 if unknown
+		 */
+		public void setKnowledge(int player, int slot, Colour colour, int value) {
+			int known = colour == null ? 0 : (colour.ordinal() + 1) << 3;
+			data[KNOWLEDGE + player * handSize + slot] = (byte) (known | value);
+		}
+
+		/**
+		 * Sets the number of turns a Card has been held,
+		 * capped to fit in a byte.
+		 * 
+		 * @param player the player holding the Card
+		 * @param slot the position of the Card in the hand
+		 * @param age the number of turns held
+		 */
+		public void setAge(int player, int slot, int age) {
+			data[AGES + player * handSize + slot] = (byte) Math.min(age, Byte.MAX_VALUE);
+		}
+
+		/**
+		 * Returns the height of a firework.
+		 * 
+		 * @param colour the Colour ordinal of the firework
+		 * @return the number of Cards in the firework
+		 */
+		public int height(int colour) {
+			return data[FIREWORKS + colour];
+		}
+
+		/**
+		 * Sets the height of a firework.
+		 * 
+		 * @param colour the Colour of the firework
+		 * @param height the number of Cards in the firework
+		 */
+		public void setFirework(Colour colour, int height) {
+			data[FIREWORKS + colour.ordinal()] = (byte) height;
+		}
+
+		/**
+		 * Adds a Card to the discards.
+		 * 
+		 * @param c the Card code
+		 */
+		public void addDiscard(int c) {
+			data[DISCARDS + c]++;
+		}
+
+		/**
+		 * Replaces the deck with the given Cards,
+		 * the last of which is drawn first.
+		 * 
+		 * @param deck the Cards in the deck
+		 */
+		public void setDeck(Collection<Card> deck) {
+			deckSize = 0;
+
+			for (Card c : deck) {
+				data[DECK + deckSize++] = encode(c);
 			}
-			else {
-				boolean[][] graph = new boolean[cardSlots.size()][totalPossibilities.size()];
-				
-				// Construct an adjacency matrix between hand positions and possibilities 
-				for (int i = 0; i < cardSlots.size(); i++) {
-					for (int j = 0; j < totalPossibilities.size(); j++) {
-						graph[i][j] = cardSlots.get(i).possibleCardsSet.contains(totalPossibilities.get(j));
-					}
-				}
-				
-				int[] matchIndex = solveHand(graph, cardSlots.size(), totalPossibilities.size());
-				
-				// Assign Cards to hand positions with the results
-				// stored in the matchIndex array
-				for (int i = 0; i < matchIndex.length; i++) {
-					if (matchIndex[i] == -1) continue;
-					CardSlot cs = cardSlots.get(matchIndex[i]);
-					playerHand[cs.index] = totalPossibilities.get(i);
+		}
+
+		/**
+		 * Replaces the deck with the given number of Cards of each code.
+		 * 
+		 * @param counts the number of Cards of each code in the deck
+		 */
+		public void setDeck(int[] counts) {
+			deckSize = 0;
+
+			for (int c = 0; c < counts.length; c++) {
+				for (int n = 0; n < counts[c]; n++) {
+					data[DECK + deckSize++] = (byte) c;
 				}
 			}
-					
-			// Set the Agent's hand equal to playerHand
-			hands[nextPlayer] = (Card[]) playerHand.clone();
-		}
-
-		/**
-		 * Begins the Maximum Bipartite Matching on the adjacency matrix
-		 * of card positions and card possibilities. Positions are indexed 
-		 * at random to provide variation in the assignment outcome.
-		 * 
-		 * @param graph the adjacency matrix 
-		 * @param slotCount the number of hand positions to fill
-		 * @param cardCount the number of possible Cards
-		 * @return an array containing indices matching hand positions
-		 * to Card possibilities 
-		 */
-		public int[] solveHand(boolean[][] graph, int slotCount, int cardCount) {
-	        int matchIndex[] = new int[cardCount];
-	        ArrayList<Integer> randomOrder = new ArrayList<Integer>(slotCount);
-	        
-	        for (int i = 0; i < slotCount; i++) {
-	        	randomOrder.add(i);
-	        }
-	        
-	        Collections.shuffle(randomOrder);
-	  
-	        Arrays.fill(matchIndex, -1);
-	  
-	        for (int i : randomOrder) { 
-	            boolean seen[] = new boolean[cardCount] ; 
-	            match(graph, i, seen, matchIndex, cardCount);
-	        } 
-	        
-	        return matchIndex; 
-		}
-
-		/**
-		 * Performs a recursive DFS based algorithm to 
-		 * calculate the Maximum Bipartite Matching. 
-		 * 
-		 * @param graph the adjacency matrix to calculate
-		 * @param index the index of the current hand position
-		 * @param seen a list of indices that have already been visited
-		 * @param matchIndex an array of the current matching indices
-		 * @param cardCount the number of possible cards
-		 * @return true if a matching occurred, false otherwise
-		 */
-		private boolean match(boolean[][] graph, int index, boolean[] seen, int[] matchIndex, int cardCount) {
-			ArrayList<Integer> randomOrder = new ArrayList<Integer>(cardCount);
-	        
-	        for (int i = 0; i < cardCount; i++) {
-	        	randomOrder.add(i);
-	        }
-	        
-	        Collections.shuffle(randomOrder);
-	        
-	        for (int i : randomOrder) { 
-	            if (graph[index][i] && !seen[i]) { 
-	                // Mark i as visited 
-	                seen[i] = true;  
-	  
-	                if (matchIndex[i] < 0 || match(graph, matchIndex[i], seen, matchIndex, cardCount)) { 
-	                    matchIndex[i] = index; 
-	                    return true; 
-	                } 
-	            } 
-	        } 
-	        
-	        return false;
+		}
+
+		/**
+		 * Sets the codes each hand position may hold, which narrow the
+		 * hint knowledge when the hidden hand is sampled.
+		 * 
+		 * @param possible the codes each position of each player's hand
+		 * may hold, bit c for code c
+		 */
+		public void setPossible(int[][] possible) {
+			int[] p = new int[playerCount * handSize];
+
+			for (int i = 0; i < playerCount; i++) {
+				System.arraycopy(possible[i], 0, p, i * handSize, handSize);
+			}
+
+			this.possible = p;
+		}
+
+		/**
+		 * Draws the top Card of the deck.
+		 * 
+		 * @return the Card code drawn, or EMPTY if the deck has run out
+		 */
+		private byte drawCard() {
+			return deckSize == 0 ? EMPTY : data[DECK + --deckSize];
+		}
+
+		/**
+		 * Shuffles the deck in place.
+		 * 
+		 * @param rand the source of randomness
+		 */
+		public void shuffleDeck(Random rand) {
+			for (int i = deckSize - 1; i > 0; i--) {
+				int j = rand.nextInt(i + 1);
+				byte c = data[DECK + i];
+				data[DECK + i] = data[DECK + j];
+				data[DECK + j] = c;
+			}
+		}
+
+		/**
+		 * Determines a possible matching for the Agent's
+		 * hand, given the deck of unseen cards and the current
+		 * hint information available. The Cards placed in the
+		 * hand are removed from the deck.
+		 */
+		public void determinePlayerHand() {
+			if (sampler == null) sampler = new HandSampler();
+			sampler.sample(this, nextPlayer, rand);
 		}
 
 		/**
 		 * Original author - Tim French.
 		 * 
 		 * A method to create the next state from the given state and a move.
-		 *
+		 * 
 		 * @param action the Action to be applied
 		 * @throws IllegalActionException if the move is not legal in the current state
 		 **/
 		public GameState nextState(Action action) throws IllegalActionException {
 			if (!legalAction(action)) throw new IllegalActionException("Invalid action!: " + action);
 			if (gameOver()) throw new IllegalActionException("Game Over!");
-			
+
 			GameState s = (GameState) this.clone();
+			s.perform(actionId(action));
+			return s;
+		}
+
+		/**
+		 * Applies an Action to this GameState in place, recording 
+		 * what it overwrites so that it can be reverted by undo. 
+		 * The Action is assumed to be legal.
+		 * 
+		 * @param action the Action to be applied
+		 * @throws IllegalActionException if the Action is malformed
+		 */
+		public void apply(Action action) throws IllegalActionException {
+			apply(actionId(action));
+		}
+
+		/**
+		 * Applies an action id to this GameState in place, as 
+		 * apply(Action) does, without touching an Action.
+		 * 
+		 * @param id the action id to be applied
+		 */
+		public void apply(int id) {
+			if (undoLog == null) {
+				undoLog = new int[FRAME * 32];
+			}
+			else if (undoSize == undoLog.length) {
+				undoLog = Arrays.copyOf(undoLog, undoLog.length * 2);
+			}
 			
-			switch (action.getType()) {
-			case PLAY:
-				int player = action.getPlayer();
-				int card = action.getCard();
+			int overwritten = 0;
+			ActionType type = typeOf(id);
+			
+			if (type == ActionType.PLAY || type == ActionType.DISCARD) {
+				int slot = nextPlayer * handSize + targetOf(id);
+				overwritten = (data[HANDS + slot] & 0xFF) | (data[KNOWLEDGE + slot] & 0xFF) << 8 | (data[AGES + slot] & 0xFF) << 16;
+			}
+			else {
+				int receiver = targetOf(id);
 				
-				// Update hint and age information
-				s.ages[player][card] = 0;
-				s.colours[player][card] = null;
-				s.values[player][card] = 0;
+				for (int i = 0; i < handSize; i++) {
+					overwritten |= data[KNOWLEDGE + receiver * handSize + i] << (6 * i);
+				}
+			}
+			
+			undoLog[undoSize++] = id;
+			undoLog[undoSize++] = overwritten;
+			undoLog[undoSize++] = hints | fuse << 4 | (finalAction + 1) << 8;
+			
+			perform(id);
+		}
+
+		/**
+		 * Reverts the most recent Action applied by apply.
+		 */
+		public void undo() {
+			int scalars = undoLog[--undoSize];
+			int overwritten = undoLog[--undoSize];
+			int id = undoLog[--undoSize];
+			int actor = playerOf(id);
+			int index = targetOf(id);
+			
+			if (typeOf(id) == ActionType.HINT_COLOUR || typeOf(id) == ActionType.HINT_VALUE) {
+				for (int i = 0; i < handSize; i++) {
+					data[KNOWLEDGE + index * handSize + i] = (byte) ((overwritten >> (6 * i)) & 0x3F);
+				}
+			}
+			else {
+				int slot = actor * handSize + index;
+				byte c = (byte) overwritten;
+				
+				// Return the drawn Card to the deck
+				if (data[HANDS + slot] != EMPTY) deckSize++;
 				
-				Card c = hands[player][card];
-				Stack<Card> fw = fireworks.get(c.getColour());
-				if ((fw.isEmpty() && c.getValue() == 1) || (!fw.isEmpty() && fw.peek().getValue() == c.getValue() - 1)) {
-					s.fireworks.get(c.getColour()).push(c);
-					if (s.fireworks.get(c.getColour()).size() == 5 && s.hints < 8)
-						s.hints++;
+				if (typeOf(id) == ActionType.DISCARD || fuse < ((scalars >> 4) & 0xF)) {
+					data[DISCARDS + c]--;
 				} else {
-					s.discards.push(c);
-					s.fuse--;
+					data[FIREWORKS + colourOf(c)]--;
 				}
-				if(!deck.isEmpty()) s.hands[action.getPlayer()][action.getCard()] = deck.pop();
-			    else s.hands[action.getPlayer()][action.getCard()] = null;
-			    if(deck.isEmpty() && finalAction==-1) s.finalAction = order+players.length;
+				
+				place(actor, index, c);
+				data[KNOWLEDGE + slot] = (byte) (overwritten >> 8);
+				data[AGES + slot] = (byte) (overwritten >> 16);
+			}
+			
+			hints = scalars & 0xF;
+			fuse = (scalars >> 4) & 0xF;
+			finalAction = (scalars >> 8) - 1;
+			nextPlayer = actor;
+			order--;
+		}
+
+		/**
+		 * Returns an applied action id still in the undo log.
+		 * 
+		 * @param depth the number of Actions applied before it
+		 * @return the action id
+		 */
+		public int applied(int depth) {
+			return undoLog[depth * FRAME];
+		}
+
+		/**
+		 * Returns the number of applied Actions that can be undone.
+		 * 
+		 * @return the number of Actions in the undo log
+		 */
+		public int depth() {
+			return undoSize / FRAME;
+		}
+
+		/**
+		 * Reverts applied Actions until only the given number remain.
+		 * 
+		 * @param depth the depth to return to
+		 */
+		public void undoTo(int depth) {
+			while (undoSize > depth * FRAME) {
+				undo();
+			}
+		}
+
+		/**
+		 * Overwrites this GameState with another, 
+		 * without allocating, and clears the undo log.
+		 * 
+		 * @param s the GameState to copy
+		 */
+		public void copyFrom(GameState s) {
+			System.arraycopy(s.data, 0, data, 0, SIZE);
+			deckSize = s.deckSize;
+			order = s.order;
+			hints = s.hints;
+			fuse = s.fuse;
+			nextPlayer = s.nextPlayer;
+			finalAction = s.finalAction;
+			undoSize = 0;
+		}
+
+		/**
+		 * Original author - Tim French.
+		 * 
+		 * Changes this GameState by the given action id.
+		 * 
+		 * @param id the action id to be applied
+		 */
+		private void perform(int id) {
+			switch (typeOf(id)) {
+			case PLAY:
+				int slot = playerOf(id) * handSize + targetOf(id);
+
+				// Update hint and age information
+				data[KNOWLEDGE + slot] = 0;
+				data[AGES + slot] = 0;
+
+				int c = data[HANDS + slot];
+				if (valueOf(c) == height(colourOf(c)) + 1) {
+					data[FIREWORKS + colourOf(c)]++;
+					if (valueOf(c) == 5 && hints < 8)
+						hints++;
+				} else {
+					data[DISCARDS + c]++;
+					fuse--;
+				}
+				place(playerOf(id), targetOf(id), drawCard());
+			    if(deckSize == 0 && finalAction==-1) finalAction = order+playerCount;
 
 				break;
 			case DISCARD:
-				player = action.getPlayer();
-				card = action.getCard();
-				
+				slot = playerOf(id) * handSize + targetOf(id);
+
 				// Update hint and age information
-				s.ages[player][card] = 0;
-				s.colours[player][card] = null;
-				s.values[player][card] = 0;
-				
-				c = hands[action.getPlayer()][action.getCard()];
-				s.discards.push(c);
-		        if(!deck.isEmpty()) s.hands[action.getPlayer()][action.getCard()] = deck.pop();
-		        else s.hands[action.getPlayer()][action.getCard()] = null;
-		        if(deck.isEmpty() && finalAction==-1) s.finalAction = order+players.length;
-		        if(hints<8) s.hints++;
+				data[KNOWLEDGE + slot] = 0;
+				data[AGES + slot] = 0;
+
+				data[DISCARDS + data[HANDS + slot]]++;
+				place(playerOf(id), targetOf(id), drawCard());
+		        if(deckSize == 0 && finalAction==-1) finalAction = order+playerCount;
+		        if(hints<8) hints++;
 				break;
 			case HINT_COLOUR:
-				boolean[] colourHints = action.getHintedCards();
-				for (int i = 0; i < colourHints.length; i++) {
+				int knownColour = (hintedOf(id) + 1) << 3;
+				for (int i = 0; i < handSize; i++) {
 					// Update Colour hint information
-					if (colourHints[i]) s.colours[action.getHintReceiver()][i] = action.getColour();
+					int known = KNOWLEDGE + targetOf(id) * handSize + i;
+					if ((maskOf(id) & 1 << i) != 0) data[known] = (byte) ((data[known] & 7) | knownColour);
 				}
-				s.hints--;
+				hints--;
 				break;
 			case HINT_VALUE:
-				boolean[] valueHints = action.getHintedCards();
-				for (int i = 0; i < valueHints.length; i++) {
+				for (int i = 0; i < handSize; i++) {
 					// Update value hint information
-					if (valueHints[i]) s.values[action.getHintReceiver()][i] = action.getValue();
+					int known = KNOWLEDGE + targetOf(id) * handSize + i;
+					if ((maskOf(id) & 1 << i) != 0) data[known] = (byte) ((data[known] & ~7) | hintedOf(id));
 				}
-				s.hints--;
+				hints--;
 				break;
 			default:
 				break;
 			}
-			s.order++;
-			s.nextPlayer = (nextPlayer + 1) % players.length;
-			return s;
+			order++;
+			nextPlayer = (nextPlayer + 1) % playerCount;
 		}
 
 		/**
@@ -1094,54 +2149,126 @@ public class Agent21750965 implements Agent {
 		 * 
 		 * Test the legality of a Action. If the observer of a state is specified,
 		 * this method can only be applied to actions performed by the observer.
+		 * Empty hand positions cannot be played or discarded.
 		 * 
 		 * @param a the move to be tested
 		 * @return true if the move is legal in the current game state.
-		 * @throws IllegalActionException 
+		 * @throws IllegalActionException
 		 **/
 		public boolean legalAction(Action a) throws IllegalActionException {
-			if (a.getPlayer() != nextPlayer) return false;
-			switch (a.getType()) {
+			if (a.getType() == ActionType.PLAY || a.getType() == ActionType.DISCARD) {
+				if (a.getCard() < 0 || a.getCard() >= handSize) return false;
+			}
+			else if (a.getHintReceiver() < 0 || a.getHintReceiver() >= playerCount) {
+				return false;
+			}
+			
+			return legalAction(actionId(a));
+		}
+
+		/**
+		 * Tests the legality of an action id, as legalAction(Action) does.
+		 * 
+		 * @param id the action id to be tested
+		 * @return true if the move is legal in the current game state
+		 */
+		public boolean legalAction(int id) {
+			if (playerOf(id) != nextPlayer) return false;
+			int target = targetOf(id);
+			
+			switch (typeOf(id)) {
 			case PLAY:
-				return (a.getCard() >= 0 && a.getCard() < hands[nextPlayer].length);
+				return target < handSize && card(nextPlayer, target) != EMPTY;
 			case DISCARD:
 				if (hints == 8) return false;
-				return (a.getCard() >= 0 && a.getCard() < hands[nextPlayer].length);
+				return target < handSize && card(nextPlayer, target) != EMPTY;
 			case HINT_COLOUR:
-				if (hints == 0 || a.getHintReceiver() < 0 || a.getHintReceiver() > players.length || a.getHintReceiver() == a.getPlayer()) return false;
-				boolean[] hint = new boolean[hands[a.getHintReceiver()].length];
-				for (int i = 0; i < hint.length; i++) {
-					Card c = hands[a.getHintReceiver()][i];
-					hint[i] = (c == null ? null : c.getColour()) == a.getColour();
-				}
-				return Arrays.equals(hint, a.getHintedCards());
-			case HINT_VALUE:
-				if (hints == 0 || a.getHintReceiver() < 0
-						|| a.getHintReceiver() > players.length
-						|| a.getHintReceiver() == a.getPlayer())
-					return false;
-				hint = new boolean[hands[a.getHintReceiver()].length];
-				for (int i = 0; i < hint.length; i++) {
-					Card c = hands[a.getHintReceiver()][i];
-					hint[i] = (c == null ? -1 : c.getValue()) == a.getValue();
-				}
-				return Arrays.equals(hint, a.getHintedCards());
+				if (hints == 0 || target >= playerCount || target == nextPlayer) return false;
+				return colourMask(target, hintedOf(id)) == maskOf(id);
 			default:
-				return false;
+				if (hints == 0 || target >= playerCount || target == nextPlayer) return false;
+				return valueMask(target, hintedOf(id)) == maskOf(id);
+			}
+		}
+
+		/**
+		 * Returns which Cards in a hand a Colour hint points to,
+		 * from the bitmasks kept by place.
+		 * 
+		 * @param receiver the player receiving the hint
+		 * @param colour the Colour ordinal hinted
+		 * @return the hinted hand positions, bit i for position i
+		 */
+		public int colourMask(int receiver, int colour) {
+			return data[COLOUR_MASKS + receiver * 5 + colour];
+		}
+
+		/**
+		 * Returns which Cards in a hand a value hint points to,
+		 * from the bitmasks kept by place.
+		 * 
+		 * @param receiver the player receiving the hint
+		 * @param value the value hinted
+		 * @return the hinted hand positions, bit i for position i
+		 */
+		public int valueMask(int receiver, int value) {
+			return data[VALUE_MASKS + receiver * 5 + value - 1];
+		}
+
+		/**
+		 * Returns which Cards in a hand are playable now,
+		 * from the bitmasks kept by place.
+		 * 
+		 * @param player the player holding the hand
+		 * @return the playable hand positions, bit i for position i
+		 */
+		public int playableMask(int player) {
+			int mask = 0;
+
+			for (int c = 0; c < 5; c++) {
+				if (height(c) < 5) mask |= colourMask(player, c) & valueMask(player, height(c) + 1);
+			}
+
+			return mask;
+		}
+
+		/**
+		 * Returns which Cards in a hand have had 
+		 * both their Colour and value hinted.
+		 * 
+		 * @param player the player holding the hand
+		 * @return the fully hinted hand positions, bit i for position i
+		 */
+		public int knownMask(int player) {
+			int mask = 0;
+
+			for (int i = 0; i < handSize; i++) {
+				if (knownColour(player, i) != -1 && knownValue(player, i) != 0) mask |= 1 << i;
 			}
+
+			return mask;
 		}
 
 		/**
-		 * Original Author - Tim French.
+		 * Returns the action id of the next player hinting a Colour.
 		 * 
-		 * Get the stack of cards representing the specified firework
+		 * @param receiver the player receiving the hint
+		 * @param colour the Colour ordinal hinted
+		 * @return the hint's action id
+		 */
+		public int colourHint(int receiver, int colour) {
+			return hintAction(nextPlayer, ActionType.HINT_COLOUR, receiver, colour, colourMask(receiver, colour));
+		}
+
+		/**
+		 * Returns the action id of the next player hinting a value.
 		 * 
-		 * @return a clone of the stack of cards representing the firework of the
-		 *         given colour. The highest card is at the top of the stack.
-		 **/
-		@SuppressWarnings("unchecked")
-		public Stack<Card> getFirework(Colour c) {
-			return (Stack<Card>) fireworks.get(c).clone();
+		 * @param receiver the player receiving the hint
+		 * @param value the value hinted
+		 * @return the hint's action id
+		 */
+		public int valueHint(int receiver, int value) {
+			return hintAction(nextPlayer, ActionType.HINT_VALUE, receiver, value, valueMask(receiver, value));
 		}
 
 		/**
@@ -1154,8 +2281,8 @@ public class Agent21750965 implements Agent {
 		public int getScore() {
 			if (fuse == 0) return 0;
 			int score = 0;
-			for (Colour c : Colour.values())
-				if (!fireworks.get(c).isEmpty()) score += fireworks.get(c).peek().getValue();
+			for (int c = 0; c < COLOURS.length; c++)
+				score += height(c);
 			return score;
 		}
 
@@ -1164,7 +2291,7 @@ public class Agent21750965 implements Agent {
 		 * 
 		 * Tests if the game is over.
 		 * 
-		 * @return true if all fireworks have been made, 
+		 * @return true if all fireworks have been made,
 		 * the deck has run out, or a fuse has exploded.
 		 **/
 		public boolean gameOver() {
@@ -1174,35 +2301,21 @@ public class Agent21750965 implements Agent {
 		/**
 		 * Original author - Tim French.
 		 * 
-		 * Produces a clone of the GameState.
+		 * Produces a clone of the GameState, with an empty undo log.
 		 * 
 		 * @return an Object clone of the GameState
 		 **/
-		@SuppressWarnings({ "unchecked", "rawtypes" })
 		public Object clone() {
 			try {
 				GameState s = (GameState) super.clone();
-				s.players = players.clone();
-				s.discards = (Stack<Card>) discards.clone();
-				s.hands = (Card[][]) hands.clone();
-				
-				for (int i = 0; i < hands.length; i++)
-					s.hands[i] = (Card[]) s.hands[i].clone();
-				
-				s.fireworks = (Map<Colour, Stack<Card>>) ((HashMap) fireworks).clone();
-				s.colours = (Colour[][]) colours.clone();
-				s.values = (int[][]) values.clone();
-				
-				for (int i = 0; i < playerCount; i++) {
-					s.colours[i] = (Colour[]) colours[i].clone();
-					s.values[i] = (int[]) values[i].clone();
-				}
-				
-				for (Colour c : Colour.values())
-					s.fireworks.put(c, (Stack<Card>) fireworks.get(c).clone());
-				
+				s.data = data.clone();
+				s.undoLog = null;
+				s.undoSize = 0;
+				s.colourCounts = null;
+				s.valueCounts = null;
+				s.sampler = null;
 				return s;
-			} 
+			}
 			catch (CloneNotSupportedException e) {
 				return null;
 			}
@@ -1212,252 +2325,721 @@ public class Agent21750965 implements Agent {
 		 * Original Author - Tim French.
 		 * 
 		 * Returns the first playable Action in a player's hand,
-		 * or null if no playable Actions exist.
+		 * or NO_ACTION if no playable Actions exist.
 		 * 
-		 * @return the first playable Action
-		 * @throws IllegalActionException if an illegal Action is created
+		 * @return the action id of the first playable Action
 		 */
-		public Action playKnown() throws IllegalActionException {
+		public int playKnown() {
 			for (int i = 0; i < handSize; i++) {
-				if (colours[nextPlayer][i] != null && values[nextPlayer][i] == playable(colours[nextPlayer][i])) {
-					return new Action(nextPlayer, "Agent21750965", ActionType.PLAY, i);
+				if (knownColour(nextPlayer, i) != -1 && knownValue(nextPlayer, i) == playable(knownColour(nextPlayer, i))) {
+					return cardAction(nextPlayer, ActionType.PLAY, i);
 				}
 			}
-			
-			return null;
+
+			return NO_ACTION;
 		}
 
 		/**
 		 * Original author - Tim French.
 		 * 
-		 * Returns the next playable value of a fireworks 
+		 * Returns the next playable value of a fireworks
 		 * stack or -1 if the stack is complete.
 		 * 
-		 * @param colour The Colour of the fireworks stack to inspect
+		 * @param colour The Colour ordinal of the fireworks stack to inspect
 		 * @return The next playable value of the fireworks stack, else -1
 		 */
-		public int playable(Colour colour) {
-			java.util.Stack<Card> fw = getFirework(colour);
-			if (fw.size() == 5) return -1;
-			else return fw.size() + 1;
+		public int playable(int colour) {
+			if (height(colour) == 5) return -1;
+			else return height(colour) + 1;
 		}
 
 		/**
 		 * Original author - Tim French.
 		 * 
-		 * Calculates and returns the first discard 
+		 * Calculates and returns the first discard
 		 * Action for a Card known to be useless,
 		 * 
-		 * @return the DISCARD Action for the first useless card, or null if none exists
-		 * @throws IllegalActionException if an illegal Action is created
+		 * @return the action id of the DISCARD for the first useless card, or NO_ACTION if none exists
 		 */
-		public Action discardKnown() throws IllegalActionException {
+		public int discardKnown() {
 			if (hints != 8) {
 				for (int i = 0; i < handSize; i++) {
-					if (colours[nextPlayer][i] != null && values[nextPlayer][i] > 0 && values[nextPlayer][i] < playable(colours[nextPlayer][i])) {
-						return new Action(nextPlayer, "Agent21750965", ActionType.DISCARD, i);
+					if (knownColour(nextPlayer, i) != -1 && knownValue(nextPlayer, i) > 0 && knownValue(nextPlayer, i) < playable(knownColour(nextPlayer, i))) {
+						return cardAction(nextPlayer, ActionType.DISCARD, i);
 					}
 				}
 			}
-			
-			return null;
+
+			return NO_ACTION;
 		}
 
 		/**
-		 * Calculates and returns a hint Action for the first 
+		 * Calculates and returns a hint Action for the first
 		 * unhinted Card known to be playable. Value hints are
 		 * prioritized over Colour hints.
 		 * 
-		 * @return a hint Action for the first playable Card
-		 * or null if no playable Card is found
-		 * @throws IllegalActionException if an illegal Action is created
+		 * @return the action id of a hint for the first playable Card
+		 * or NO_ACTION if no playable Card is found
 		 */
-		public Action hintPlayable() throws IllegalActionException {
+		public int hintPlayable() {
 			if (hints > 0) {
 				for (int i = 1; i < playerCount; i++) {
 					int hintee = (nextPlayer + i) % playerCount;
-					Card[] hand = hands[hintee];
 
-					for (int j = 0; j < hand.length; j++) {
-						Card c = hand[j];
-						
-						if (c != null && c.getValue() == playable(c.getColour())) {
-							if (values[hintee][j] == 0) {
-								boolean[] val = new boolean[hand.length];
-
-								for (int k = 0; k < val.length; k++) {
-									if (hand[k] == null) continue;
-									val[k] = c.getValue() == hand[k].getValue();
-								}
-								
-								return new Action(nextPlayer, "Agent21750965", ActionType.HINT_VALUE, hintee, val, c.getValue());
-							} 
-							else if (colours[hintee][j] == null) {
-								boolean[] col = new boolean[hand.length];
-
-								for (int k = 0; k < col.length; k++) {
-									if (hand[k] == null) continue;
-									col[k] = c.getColour().equals(hand[k].getColour());
-								}
-								
-								return new Action(nextPlayer, "Agent21750965", ActionType.HINT_COLOUR, hintee, col, c.getColour());
+					for (int j = 0; j < handSize; j++) {
+						int c = card(hintee, j);
+
+						if (c != EMPTY && valueOf(c) == playable(colourOf(c))) {
+							if (knownValue(hintee, j) == 0) {
+								return valueHint(hintee, valueOf(c));
+							}
+							else if (knownColour(hintee, j) == -1) {
+								return colourHint(hintee, colourOf(c));
 							}
 						}
 					}
 				}
 			}
-			
-			return null;
+
+			return NO_ACTION;
 		}
 
 		/**
 		 * Calculates and returns a hint Action that
 		 * reveals the greatest volume of unhinted information.
 		 * 
-		 * @return the hint Action revealing the most information or 
-		 * null if no information revealing hint is possible
-		 * @throws IllegalActionException if an illegal Action is created
+		 * @return the action id of the hint revealing the most information
+		 * or NO_ACTION if no information revealing hint is possible
 		 */
-		public Action hintMostCommon() throws IllegalActionException {
+		public int hintMostCommon() {
 			int mostCommon = -100;
 			int bestHintee = -1;
 			boolean colour = true;
-			Colour cKey = null;
+			int cKey = -1;
 			int vKey = -1;
 
 			if (hints > 0) {
+				if (colourCounts == null) {
+					colourCounts = new int[5];
+					valueCounts = new int[6];
+				}
+				
 				for (int i = 1; i < playerCount; i++) {
 					int hintee = (nextPlayer + i) % playerCount;
 					if (hintee == nextPlayer) continue;
-					
-					Map<Colour, Integer> col = new HashMap<Colour, Integer>();
-					Map<Integer, Integer> val = new HashMap<Integer, Integer>();
-					Card[] hand = hands[hintee];
 
-					for (int j = 0; j < hand.length; j++) {
-						Card c = hand[j];
-						if (c == null) continue;
-						Colour colourKey = c.getColour();
-						int valueKey = c.getValue();
+					// Number of unhinted cards sharing each Colour and value
+					int[] col = colourCounts;
+					int[] val = valueCounts;
+					Arrays.fill(col, 0);
+					Arrays.fill(val, 0);
 
-						// check colour hasn't already been hinted
-						if (colours[hintee][j] == null) {
-							if (col.containsKey(colourKey)) {
-								col.put(colourKey, col.get(colourKey) + 1);
-							} else {
-								col.put(colourKey, 1);
-							}
-						}
+					for (int j = 0; j < handSize; j++) {
+						int c = card(hintee, j);
+						if (c == EMPTY) continue;
 
+						// check colour hasn't already been hinted
+						if (knownColour(hintee, j) == -1) col[colourOf(c)]++;
 						// check value hasn't already been hinted
-						if (values[hintee][j] == 0) {
-							if (val.containsKey(valueKey)) {
-								val.put(valueKey, val.get(valueKey) + 1);
-							} else {
-								val.put(valueKey, 1);
-							}
-						}
+						if (knownValue(hintee, j) == 0) val[valueOf(c)]++;
 					}
 
-					for (Entry<Colour, Integer> c : col.entrySet()) {
-						if (mostCommon < c.getValue()) {
-							cKey = c.getKey();
+					for (int c = 0; c < col.length; c++) {
+						if (col[c] > 0 && mostCommon < col[c]) {
+							cKey = c;
 							bestHintee = hintee;
-							mostCommon = c.getValue();
+							mostCommon = col[c];
 						}
 					}
 
-					for (Entry<Integer, Integer> v : val.entrySet()) {
-						if (mostCommon < v.getValue()) {
+					for (int v = 1; v < val.length; v++) {
+						if (val[v] > 0 && mostCommon < val[v]) {
 							colour = false;
-							vKey = v.getKey();
+							vKey = v;
 							bestHintee = hintee;
-							mostCommon = v.getValue();
+							mostCommon = val[v];
 						}
 					}
 				}
 
 				if (colour && bestHintee != -1) {
-					boolean[] results = new boolean[handSize];
-					Card[] bestHand = hands[bestHintee];
-
-					for (int k = 0; k < values[nextPlayer].length; k++) {
-						if (bestHand[k] == null) continue;
-						results[k] = cKey.equals(bestHand[k].getColour());
-					}
-
-					return new Action(nextPlayer, "Agent21750965", ActionType.HINT_COLOUR, bestHintee, results, cKey);
-				} 
+					return colourHint(bestHintee, cKey);
+				}
 				else if (bestHintee != -1) {
-					boolean[] results = new boolean[values[nextPlayer].length];
-					Card[] bestHand = hands[bestHintee];
-
-					for (int k = 0; k < values[nextPlayer].length; k++) {
-						if (bestHand[k] == null) continue;
-						results[k] = (vKey == bestHand[k].getValue());
-					}
-
-					return new Action(nextPlayer, "Agent21750965", ActionType.HINT_VALUE, bestHintee, results, vKey);
+					return valueHint(bestHintee, vKey);
 				}
 			}
-			
-			return null;
+
+			return NO_ACTION;
 		}
 
 		/**
 		 * Calculates and returns the Action that discards
 		 * the oldest Card in the current player's hand.
 		 * 
-		 * @return a discard Action for the oldest Card in nextPlayer's hand
-		 * @throws IllegalActionException if an illegal Action is created
+		 * @return the action id of a discard of the oldest Card in nextPlayer's hand
 		 */
-		public Action discardOldest() throws IllegalActionException {
+		public int discardOldest() {
 			if (hints != 8) {
-				int oldest = ages[nextPlayer][0];
+				int hand = nextPlayer * handSize;
+				int oldest = data[AGES + hand];
 				int discardIndex = 0;
 
 				for (int i = 1; i < handSize; i++) {
-					if (ages[nextPlayer][i] > oldest && values[nextPlayer][i] != 5) {
-						oldest = ages[nextPlayer][i];
+					if (data[AGES + hand + i] > oldest && knownValue(nextPlayer, i) != 5) {
+						oldest = data[AGES + hand + i];
 						discardIndex = i;
 					}
 				}
+
+				return cardAction(nextPlayer, ActionType.DISCARD, discardIndex);
+			}
+
+			return NO_ACTION;
+		}
+	}
+
+	/**
+	 * Samples the hidden hand of a player consistently with the hints
+	 * it has been given, uniformly over the unseen physical Cards. 
+	 * The unseen Cards are held as counts of the 25 Card codes, and 
+	 * each hand position as a 25-bit mask of the codes its hints allow.
+	 * 
+	 * Positions are drawn most constrained first, each from its 
+	 * candidates weighted by the Cards left. A draw is accepted with 
+	 * probability the product, over positions, of the candidate weight
+	 * when drawn over the candidate weight before any draw, which makes
+	 * the accepted hands exactly uniform. All storage is reused.
+	 * 
+	 * @author Mark Boon
+	 */
+	class HandSampler {
+		
+		// Draws rejected before the hand is matched exactly instead
+		private final int ATTEMPTS = 64;
+		
+		// Number of unseen Cards of each code
+		private final int[] counts = new int[25];
+		// Candidate codes of each hand position
+		private final int[] candidates = new int[5];
+		// Candidate weight of each hand position before any draw
+		private final int[] weights = new int[5];
+		// Hand positions in drawing order
+		private final int[] order = new int[5];
+		// Code drawn for each hand position, or EMPTY
+		private final int[] drawn = new int[5];
+		// Codes visited by the current augmenting path of match
+		private int seen;
+		
+		/**
+		 * Replaces the hand of a player with a sample of the unseen
+		 * Cards, which are the deck and the Cards already in the hand.
+		 * If ATTEMPTS draws are rejected, the hand is matched exactly
+		 * instead, so it is complete whenever a complete hand exists.
+		 * A position whose hints no unseen Card fits is left empty.
+		 * 
+		 * @param s the GameState to determinize
+		 * @param player the player whose hand is hidden
+		 * @param rand the Random for sampling
+		 */
+		public void sample(GameState s, int player, Random rand) {
+			int handSize = s.handSize;
+			
+			// Return the hand to the deck
+			for (int i = 0; i < handSize; i++) {
+				int c = s.card(player, i);
+				
+				if (c != EMPTY) {
+					s.data[GameState.DECK + s.deckSize++] = (byte) c;
+					s.place(player, i, EMPTY);
+				}
+			}
+			
+			Arrays.fill(counts, 0);
+			
+			for (int j = 0; j < s.deckSize; j++) {
+				counts[s.data[GameState.DECK + j]]++;
+			}
+			
+			for (int i = 0; i < handSize; i++) {
+				int colour = s.knownColour(player, i);
+				int value = s.knownValue(player, i);
+				int mask = s.possible == null ? ALL_CODES : s.possible[player * handSize + i];
+				
+				if (colour != -1) mask &= 0x1F << (colour * 5);
+				if (value != 0) mask &= ONES << (value - 1);
+				
+				candidates[i] = mask;
+				weights[i] = weight(mask);
+				
+				// Insert i into the drawing order by weight
+				int k = i;
+				
+				for (; k > 0 && weights[order[k - 1]] > weights[i]; k--) {
+					order[k] = order[k - 1];
+				}
+				
+				order[k] = i;
+			}
+			
+			for (int attempt = 1; ; attempt++) {
+				double accept = 1;
+				boolean complete = true;
+				
+				for (int k = 0; k < handSize; k++) {
+					int i = order[k];
+					int w = weight(candidates[i]);
+					drawn[i] = EMPTY;
+					
+					if (w == 0) {
+						// The earlier positions took every candidate
+						if (weights[i] > 0) complete = false;
+						continue;
+					}
+					
+					accept *= (double) w / weights[i];
+					int r = rand.nextInt(w);
+					
+					for (int m = candidates[i]; ; m &= m - 1) {
+						int c = Integer.numberOfTrailingZeros(m);
+						r -= counts[c];
+						
+						if (r < 0) {
+							drawn[i] = c;
+							counts[c]--;
+							break;
+						}
+					}
+				}
+				
+				if (complete && rand.nextDouble() < accept) break;
+				
+				for (int i = 0; i < handSize; i++) {
+					if (drawn[i] != EMPTY) counts[drawn[i]]++;
+				}
+				
+				if (attempt == ATTEMPTS) {
+					match(handSize, rand);
+					break;
+				}
+			}
+			
+			// Move the drawn Cards from the deck to the hand
+			for (int i = 0; i < handSize; i++) {
+				if (drawn[i] == EMPTY) continue;
+				
+				for (int j = 0; j < s.deckSize; j++) {
+					if (s.data[GameState.DECK + j] == drawn[i]) {
+						s.data[GameState.DECK + j] = s.data[GameState.DECK + --s.deckSize];
+						break;
+					}
+				}
+				
+				s.place(player, i, drawn[i]);
+			}
+		}
+		
+		/**
+		 * Fills the hand positions by a maximum matching of positions
+		 * to the unseen Cards, as the original determinization did, 
+		 * for when rejection sampling keeps failing. Positions and 
+		 * codes are tried from random starting points, so the hands
+		 * vary, but they are not uniform.
+		 * 
+		 * @param handSize the number of hand positions
+		 * @param rand the Random for the starting points
+		 */
+		private void match(int handSize, Random rand) {
+			Arrays.fill(drawn, EMPTY);
+			int start = rand.nextInt(handSize);
+			
+			for (int k = 0; k < handSize; k++) {
+				int i = (start + k) % handSize;
+				if (weights[i] == 0) continue;
+				
+				seen = 0;
+				augment(i, rand.nextInt(25));
+			}
+		}
+		
+		/**
+		 * Finds a Card for a hand position along an augmenting path:
+		 * an unseen Card of one of its codes, or the code of another
+		 * position that can be given a different Card in turn.
+		 * 
+		 * @param i the hand position
+		 * @param rotation the code tried first
+		 * @return true if the position was given a Card
+		 */
+		private boolean augment(int i, int rotation) {
+			for (int k = 0; k < 25; k++) {
+				int c = (rotation + k) % 25;
+				if ((candidates[i] >> c & 1) == 0 || (seen >> c & 1) != 0) continue;
+				seen |= 1 << c;
+				
+				if (counts[c] > 0) {
+					counts[c]--;
+					drawn[i] = c;
+					return true;
+				}
+				
+				for (int j = 0; j < drawn.length; j++) {
+					if (j != i && drawn[j] == c && augment(j, rotation)) {
+						drawn[i] = c;
+						return true;
+					}
+				}
+			}
+			
+			return false;
+		}
+		
+		/**
+		 * Returns the number of unseen Cards among the given codes.
+		 * 
+		 * @param mask the codes, bit c for code c
+		 * @return the number of unseen Cards with those codes
+		 */
+		private int weight(int mask) {
+			int w = 0;
+			
+			for (int m = mask; m != 0; m &= m - 1) {
+				w += counts[Integer.numberOfTrailingZeros(m)];
+			}
+			
+			return w;
+		}
+	}
+
+	/**
+	 * What the public information tells about the unseen Cards, kept 
+	 * on the 25 Card codes: the number of each code neither discarded
+	 * nor played, and for each hand position a 25-bit mask of the 
+	 * codes it may hold. A hint narrows the positions it names to the
+	 * hinted Colour or value, and the positions it leaves out to the
+	 * others. Each observed Action and each revealed Card is a 
+	 * constant time update, and the Cards a player cannot see are 
+	 * counted without building any list.
+	 * 
+	 * @author Mark Boon
+	 */
+	class Belief {
+		
+		// Number of Cards of each code neither discarded nor played
+		final int[] remaining = new int[25];
+		// Codes each position of each hand may hold, bit c for code c
+		final int[][] possible;
+		// Number of Cards of each code unseen by a player, reused
+		private final int[] unseen = new int[25];
+		
+		/**
+		 * Constructs the Belief of a new game, in which 
+		 * no Card has been revealed and nothing hinted.
+		 * 
+		 * @param playerCount the number of players in the game
+		 * @param handSize the number of Cards in each hand
+		 */
+		public Belief(int playerCount, int handSize) {
+			for (Card c : Card.getDeck()) {
+				remaining[encode(c)]++;
+			}
+			
+			possible = new int[playerCount][handSize];
+			
+			for (int[] hand : possible) {
+				Arrays.fill(hand, ALL_CODES);
+			}
+		}
+		
+		/**
+		 * Narrows the hand positions an Action tells about. A played
+		 * or discarded position is refilled with an unknown Card.
+		 * 
+		 * @param a the Action taken
+		 * @throws IllegalActionException if the Action is malformed
+		 */
+		public void observe(Action a) throws IllegalActionException {
+			switch (a.getType()) {
+			case HINT_COLOUR:
+				narrow(a.getHintReceiver(), a.getHintedCards(), 0x1F << (a.getColour().ordinal() * 5));
+				break;
+			case HINT_VALUE:
+				narrow(a.getHintReceiver(), a.getHintedCards(), ONES << (a.getValue() - 1));
+				break;
+			default:
+				possible[a.getPlayer()][a.getCard()] = ALL_CODES;
+			}
+		}
+		
+		/**
+		 * Narrows every position of a hand by a hint.
+		 * 
+		 * @param receiver the player given the hint
+		 * @param hinted the positions the hint names
+		 * @param codes the codes of the hinted Colour or value
+		 */
+		private void narrow(int receiver, boolean[] hinted, int codes) {
+			int[] hand = possible[receiver];
+			
+			for (int i = 0; i < hand.length; i++) {
+				hand[i] &= hinted[i] ? codes : ~codes;
+			}
+		}
+		
+		/**
+		 * Counts out a Card discarded or played.
+		 * 
+		 * @param c the Card code
+		 */
+		public void reveal(int c) {
+			remaining[c]--;
+		}
+		
+		/**
+		 * Returns the number of Cards of each code a player cannot 
+		 * see: those remaining, less the other players' hands. The
+		 * array returned is reused by the next call.
+		 * 
+		 * @param s the GameState holding the other players' hands
+		 * @param player the player whose view is counted
+		 * @return the number of unseen Cards of each code
+		 */
+		public int[] unseen(GameState s, int player) {
+			System.arraycopy(remaining, 0, unseen, 0, unseen.length);
+			
+			for (int i = 0; i < possible.length; i++) {
+				if (i == player) continue;
 				
-				return new Action(nextPlayer, "Agent21750965", ActionType.DISCARD, discardIndex);
+				for (int j = 0; j < s.handSize; j++) {
+					int c = s.card(i, j);
+					if (c != EMPTY) unseen[c]--;
+				}
 			}
 			
-			return null;
+			return unseen;
 		}
 	}
-	
+
+	/**
+	 * Chooses the Actions played in the simulation phase of the
+	 * search. A policy is shared by every tree and thread, so it 
+	 * keeps no state between calls.
+	 * 
+	 * @author Mark Boon
+	 */
+	interface RolloutPolicy {
+		
+		/**
+		 * Returns the Action the next player takes in a GameState.
+		 * 
+		 * @param d the GameState, which is not changed
+		 * @return the action id of a legal Action, or NO_ACTION if 
+		 * the policy has none, leaving the rollout to fall back on
+		 * a default Action
+		 */
+		int choose(GameState d);
+	}
+
+	/**
+	 * The rollout policy of the original agent: a chain of rules, 
+	 * each scanning the hands, of which the first to apply is taken.
+	 * 
+	 * @author Mark Boon
+	 */
+	class RulePolicy implements RolloutPolicy {
+		
+		public int choose(GameState d) {
+			// Code pinched from Tim French
+			int a = d.playKnown();
+			if (a == NO_ACTION) a = d.discardKnown();
+			if (a == NO_ACTION) a = d.hintPlayable();
+			if (a == NO_ACTION) a = d.hintMostCommon();
+			if (a == NO_ACTION) a = d.discardOldest();
+			return a;
+		}
+	}
+
 	/**
-	 * A class to represent a Card position
-	 * in the hand of a player.
+	 * A rollout policy that looks its rule up in a table, keyed on
+	 * features of the position computed from the hint knowledge and 
+	 * the bitmasks GameState keeps of each hand. The features are 
+	 * found lazily, in three stages of rising cost: the tokens, the
+	 * player's own hand, then the other hands. A stage is skipped
+	 * when every key agreeing with the earlier stages gives the same
+	 * rule and that rule does not need it. The default table takes 
+	 * the rules in the order of RulePolicy; a table learned offline 
+	 * can be given instead.
 	 * 
 	 * @author Mark Boon
 	 */
-	class CardSlot {
+	class TablePolicy implements RolloutPolicy {
 		
-		// Represents the index in playerHand this slot corresponds to
-		public int index;
-		// Represents if the slot has been assigned to playerHand
-		public boolean assigned;
-		// A set of possible Cards for this slot 
-		// to exploit the O(1) lookup time
-		public HashSet<Card> possibleCardsSet;
-		// A list of possible Cards for this slot
-		public ArrayList<Card> possibleCardsList;
+		// Features of a key: the player knows a Card of theirs is
+		// playable, or is useless, a hint may be given, a Card may be
+		// discarded, another player holds a playable Card that is not
+		// fully hinted, and only one fuse token is left
+		static final int KNOWN_PLAYABLE = 1;
+		static final int KNOWN_USELESS = 2;
+		static final int CAN_HINT = 4;
+		static final int CAN_DISCARD = 8;
+		static final int TEAM_PLAYABLE = 16;
+		static final int LAST_FUSE = 32;
+		// Number of keys
+		static final int KEYS = 64;
+		// Features found by the end of each stage
+		static final int TOKEN_FEATURES = CAN_HINT | CAN_DISCARD | LAST_FUSE;
+		static final int HAND_FEATURES = TOKEN_FEATURES | KNOWN_PLAYABLE | KNOWN_USELESS;
+		
+		// Rules a key may be mapped to
+		static final byte PLAY_KNOWN = 0;
+		static final byte DISCARD_KNOWN = 1;
+		static final byte HINT_PLAYABLE = 2;
+		static final byte HINT_MOST_COMMON = 3;
+		static final byte DISCARD_OLDEST = 4;
+		// No single rule is known yet
+		static final byte UNDECIDED = -1;
+		
+		// Rule of each key
+		private final byte[] table;
+		// Rule of each key once the tokens and once the own hand are
+		// known, or UNDECIDED if the features left could change it
+		private final byte[] tokenRules = new byte[KEYS];
+		private final byte[] handRules = new byte[KEYS];
 		
 		/**
-		 * Default constructor.
+		 * Constructs the policy with the default table.
+		 */
+		public TablePolicy() {
+			table = new byte[KEYS];
+			
+			for (int key = 0; key < KEYS; key++) {
+				if ((key & KNOWN_PLAYABLE) != 0) 
+					table[key] = PLAY_KNOWN;
+				else if ((key & KNOWN_USELESS) != 0 && (key & CAN_DISCARD) != 0) 
+					table[key] = DISCARD_KNOWN;
+				else if ((key & TEAM_PLAYABLE) != 0 && (key & CAN_HINT) != 0) 
+					table[key] = HINT_PLAYABLE;
+				else if ((key & CAN_HINT) != 0) 
+					table[key] = HINT_MOST_COMMON;
+				else 
+					table[key] = DISCARD_OLDEST;
+			}
+			
+			decide(tokenRules, TOKEN_FEATURES);
+			decide(handRules, HAND_FEATURES);
+		}
+		
+		/**
+		 * Constructs the policy with the given table.
+		 * 
+		 * @param table the rule of each of the KEYS keys
+		 */
+		public TablePolicy(byte[] table) {
+			this.table = table.clone();
+			decide(tokenRules, TOKEN_FEATURES);
+			decide(handRules, HAND_FEATURES);
+		}
+		
+		/**
+		 * Fills in the rule of each key when only some features are
+		 * known: the rule every key with the same known features gives,
+		 * or UNDECIDED if they differ.
+		 * 
+		 * @param rules the rules to fill in, by key of the known features
+		 * @param known the features known
+		 */
+		private void decide(byte[] rules, int known) {
+			int unknown = (KEYS - 1) & ~known;
+			
+			for (int key = 0; key < KEYS; key++) {
+				int k = key & known;
+				rules[key] = table[k];
+				
+				// Every key agreeing with this one on the known features
+				for (int sub = unknown; sub != 0; sub = (sub - 1) & unknown) {
+					if (table[k | sub] != rules[key]) {
+						rules[key] = UNDECIDED;
+						break;
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Returns the Action of the rule the table gives for the 
+		 * position. If that rule does not apply, the oldest Card is
+		 * discarded or, failing that, the most common hint given.
 		 * 
-		 * @param i the hand position index of this CardSlot
+		 * @param d the GameState, which is not changed
+		 * @return the action id of a legal Action
 		 */
-		public CardSlot(int i) {
-			index = i;
-			assigned = false;
-			possibleCardsSet = new HashSet<Card>(); 
-			possibleCardsList = new ArrayList<Card>(); 
+		public int choose(GameState d) {
+			int player = d.nextPlayer;
+			int key = (d.hints > 0 ? CAN_HINT : 0)
+					| (d.hints < 8 ? CAN_DISCARD : 0)
+					| (d.fuse == 1 ? LAST_FUSE : 0);
+			int rule = tokenRules[key];
+			int playable = 0;
+			int useless = 0;
+			
+			if (rule == UNDECIDED || rule == PLAY_KNOWN || rule == DISCARD_KNOWN) {
+				// Positions of the player's hand known playable or useless
+				for (int i = 0; i < d.handSize; i++) {
+					int colour = d.knownColour(player, i);
+					int value = d.knownValue(player, i);
+					if (colour == -1 || value == 0) continue;
+					
+					if (value == d.height(colour) + 1) playable |= 1 << i;
+					else if (value <= d.height(colour)) useless |= 1 << i;
+				}
+				
+				if (playable != 0) key |= KNOWN_PLAYABLE;
+				if (useless != 0) key |= KNOWN_USELESS;
+				if (rule == UNDECIDED) rule = handRules[key];
+			}
+			
+			int hintee = -1;
+			int hintable = 0;
+			
+			if (rule == UNDECIDED || rule == HINT_PLAYABLE) {
+				// First other player holding a playable Card to hint
+				for (int i = 1; i < d.playerCount && hintable == 0; i++) {
+					hintee = (player + i) % d.playerCount;
+					hintable = d.playableMask(hintee) & ~d.knownMask(hintee);
+				}
+				
+				if (hintable != 0) key |= TEAM_PLAYABLE;
+				if (rule == UNDECIDED) rule = table[key];
+			}
+			
+			int a = NO_ACTION;
+			
+			switch (rule) {
+			case PLAY_KNOWN:
+				if (playable != 0) a = cardAction(player, ActionType.PLAY, Integer.numberOfTrailingZeros(playable));
+				break;
+			case DISCARD_KNOWN:
+				if (useless != 0 && d.hints < 8) a = cardAction(player, ActionType.DISCARD, Integer.numberOfTrailingZeros(useless));
+				break;
+			case HINT_PLAYABLE:
+				if (hintable != 0 && d.hints > 0) {
+					int slot = Integer.numberOfTrailingZeros(hintable);
+					int c = d.card(hintee, slot);
+					
+					if (d.knownValue(hintee, slot) == 0) a = d.valueHint(hintee, valueOf(c));
+					else a = d.colourHint(hintee, colourOf(c));
+				}
+				break;
+			case HINT_MOST_COMMON:
+				a = d.hintMostCommon();
+				break;
+			default:
+				break;
+			}
+			
+			if (a == NO_ACTION) a = d.discardOldest();
+			if (a == NO_ACTION) a = d.hintMostCommon();
+			return a;
 		}
 	}
 
@@ -1465,7 +3047,7 @@ public class Agent21750965 implements Agent {
 	 * A class representing an expanded Node and 
 	 * the corresponding GameState in IS-MCTS+UCB
 	 * @author Mark Boon
-	 *
+	 * 
 	 * @param <Node>
 	 * @param <GameState>
 	 */
@@ -0,0 +1,286 @@
+package agents;
+
+import hanabAI.Action;
+import hanabAI.Card;
+import hanabAI.Colour;
+import hanabAI.IllegalActionException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Stack;
+
+/**
+ * Measures the throughput of the Agent21750965 search on fixed,
+ * seeded game states, so that runs are reproducible and 
+ * regressions are caught before a new agent is deployed.
+ * 
+ * Usage: java -cp bin agents.HanabiBenchmark [players] [seconds]
+ * 
+ * @author Mark Boon
+ */
+public class HanabiBenchmark {
+	// Seed of the fixture deal and of every Random in the search
+	private static final long SEED = 3001;
+	// Number of moves played after the deal to reach the fixture
+	private static final int OPENING = 12;
+	// Number of ISUCT decisions to average over
+	private static final int DECISIONS = 5;
+
+	// Consumes results so the JIT cannot remove the measured work
+	private static long sink;
+
+	/**
+	 * An operation to be measured.
+	 */
+	interface Operation {
+		void run() throws Exception;
+	}
+
+	/**
+	 * Runs every benchmark and prints its throughput.
+	 * 
+	 * @param args the number of players and the seconds per benchmark
+	 * @throws Exception if a benchmark fails
+	 */
+	public static void main(String[] args) throws Exception {
+		int players = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 2;
+
+		Agent21750965 agent = new Agent21750965();
+		final Agent21750965.GameState state = fixture(agent, players);
+		final Stack<Card> unseen = unseenCards(state);
+		final Agent21750965.MCTStree tree = agent.new MCTStree(state, unseen, new Random(SEED));
+		final Agent21750965.GameState d = (Agent21750965.GameState) tree.gameState.clone();
+		final List<Action> actions = new ArrayList<Action>();
+
+		for (int i = 0; i < tree.root.possibleCount; i++) {
+			int id = tree.root.possibleMoves[i];
+			if (state.legalAction(id)) actions.add(state.actions[id]);
+		}
+
+		System.out.println("Hanabi, " + players + " players, seed " + SEED);
+
+		measure("GameState.clone", "ops", seconds, new Operation() {
+			public void run() {
+				sink += ((Agent21750965.GameState) state.clone()).deckSize;
+			}
+		});
+
+		measure("GameState.nextState", "ops", seconds, new Operation() {
+			int i = 0;
+
+			public void run() throws IllegalActionException {
+				sink += state.nextState(actions.get(i++ % actions.size())).order;
+			}
+		});
+
+		measure("GameState.legalAction", "ops", seconds, new Operation() {
+			int i = 0;
+
+			public void run() throws IllegalActionException {
+				if (state.legalAction(tree.root.possibleMoves[i++ % tree.root.possibleCount])) sink++;
+			}
+		});
+
+		measure("GameState.determinePlayerHand", "ops", seconds, new Operation() {
+			public void run() {
+				d.copyFrom(tree.gameState);
+				d.determinePlayerHand();
+				sink += d.deckSize;
+			}
+		});
+
+		d.copyFrom(tree.gameState);
+		d.determinePlayerHand();
+		d.shuffleDeck(d.rand);
+
+		final Agent21750965.RolloutPolicy rules = agent.new RulePolicy();
+		final Agent21750965.RolloutPolicy table = agent.new TablePolicy();
+
+		measure("RulePolicy.choose", "ops", seconds, new Operation() {
+			public void run() {
+				sink += rules.choose(d);
+			}
+		});
+
+		measure("TablePolicy.choose", "ops", seconds, new Operation() {
+			public void run() {
+				sink += table.choose(d);
+			}
+		});
+
+		measure("MCTStree.rollout", "ops", seconds, new Operation() {
+			public void run() throws IllegalActionException {
+				sink += tree.rollout(d);
+			}
+		});
+
+		agent.setRolloutPolicy(table);
+		final Agent21750965.MCTStree tableTree = agent.new MCTStree(state, unseen, new Random(SEED));
+		agent.setRolloutPolicy(rules);
+
+		measure("MCTStree.rollout TablePolicy", "ops", seconds, new Operation() {
+			public void run() throws IllegalActionException {
+				sink += tableTree.rollout(d);
+			}
+		});
+
+		agent.setMaxBatch(1);
+		decide("MCTStree.ISUCT", agent, state, unseen);
+		agent.setMaxBatch(8);
+		decide("MCTStree.ISUCT batched", agent, state, unseen);
+		agent.setRaveEquivalence(50);
+		decide("MCTStree.ISUCT batched, RAVE", agent, state, unseen);
+
+		if (sink == 42) System.out.println();
+	}
+
+	/**
+	 * Measures the iterations per second of DECISIONS searches from
+	 * the fixture, after as many to warm up, and how many iterations
+	 * share a determinization.
+	 * 
+	 * @param name the name of the benchmark
+	 * @param agent the Agent owning the trees
+	 * @param state the fixture GameState
+	 * @param unseen the Cards unseen by the next player
+	 * @throws IllegalActionException if an illegal Action is applied to the GameState
+	 */
+	static void decide(String name, Agent21750965 agent, Agent21750965.GameState state, Stack<Card> unseen) throws IllegalActionException {
+		for (int i = 0; i < DECISIONS; i++) {
+			sink += agent.new MCTStree(state, unseen, new Random(SEED + i)).ISUCT().visits;
+		}
+
+		long iterations = 0;
+		long determinizations = 0;
+		long start = System.nanoTime();
+
+		for (int i = 0; i < DECISIONS; i++) {
+			Agent21750965.MCTStree search = agent.new MCTStree(state, unseen, new Random(SEED + i));
+			sink += search.ISUCT().visits;
+			iterations += search.iterations.get();
+			determinizations += search.determinizations.get();
+		}
+
+		report(name, "iterations", iterations / ((System.nanoTime() - start) / 1e9));
+		System.out.printf("%-32s %14.2f iterations/determinization%n", "", (double) iterations / determinizations);
+	}
+
+	/**
+	 * Deals a seeded game and plays the rules of RulePolicy
+	 * for OPENING moves to reach a middle game state.
+	 * 
+	 * @param agent the Agent owning the GameState
+	 * @param players the number of players
+	 * @return the fixture GameState
+	 * @throws IllegalActionException if an illegal Action is applied to the GameState
+	 */
+	static Agent21750965.GameState fixture(Agent21750965 agent, int players) throws IllegalActionException {
+		Random rand = new Random(SEED);
+		Agent21750965.GameState s = agent.new GameState(players);
+		List<Card> deck = new ArrayList<Card>(Arrays.asList(Card.getDeck()));
+		Collections.shuffle(deck, rand);
+
+		for (int p = 0; p < players; p++) {
+			for (int i = 0; i < s.handSize; i++) {
+				s.setCard(p, i, deck.remove(deck.size() - 1));
+			}
+		}
+
+		s.setDeck(deck);
+		s.hints = 8;
+		s.fuse = 3;
+		s.nextPlayer = 0;
+		s.rand = rand;
+
+		Agent21750965.RolloutPolicy policy = agent.new RulePolicy();
+
+		for (int i = 0; i < OPENING; i++) {
+			s = s.nextState(s.actions[policy.choose(s)]);
+		}
+
+		return s;
+	}
+
+	/**
+	 * Returns the Cards the next player cannot see: 
+	 * the deck and their own hand.
+	 * 
+	 * @param s the GameState
+	 * @return a Stack of the unseen Cards
+	 */
+	static Stack<Card> unseenCards(Agent21750965.GameState s) {
+		Stack<Card> unseen = new Stack<Card>();
+
+		for (int i = 0; i < s.deckSize; i++) {
+			unseen.push(decode(s.data[Agent21750965.GameState.DECK + i]));
+		}
+
+		for (int i = 0; i < s.handSize; i++) {
+			if (s.card(s.nextPlayer, i) != -1) unseen.push(decode(s.card(s.nextPlayer, i)));
+		}
+
+		return unseen;
+	}
+
+	/**
+	 * Returns the Card for a Card code.
+	 * 
+	 * @param code the Card code
+	 * @return the decoded Card
+	 */
+	private static Card decode(int code) {
+		return new Card(Colour.values()[Agent21750965.colourOf(code)], Agent21750965.valueOf(code));
+	}
+
+	/**
+	 * Warms up an operation, then measures its throughput.
+	 * 
+	 * @param name the name of the benchmark
+	 * @param unit the unit of work of one operation
+	 * @param seconds the duration of the warm up and of the measurement
+	 * @param op the operation
+	 * @throws Exception if the operation fails
+	 */
+	static void measure(String name, String unit, double seconds, Operation op) throws Exception {
+		run(op, seconds);
+		report(name, unit, run(op, seconds));
+	}
+
+	/**
+	 * Repeats an operation for the given duration.
+	 * 
+	 * @param op the operation
+	 * @param seconds the duration
+	 * @return the number of operations per second
+	 * @throws Exception if the operation fails
+	 */
+	private static double run(Operation op, double seconds) throws Exception {
+		long ops = 0;
+		long start = System.nanoTime();
+		long finish = start + (long) (seconds * 1e9);
+		long now;
+
+		do {
+			for (int i = 0; i < 16; i++) op.run();
+			ops += 16;
+			now = System.nanoTime();
+		} while (now < finish);
+
+		return ops / ((now - start) / 1e9);
+	}
+
+	/**
+	 * Prints the throughput of a benchmark.
+	 * 
+	 * @param name the name of the benchmark
+	 * @param unit the unit of work
+	 * @param rate the units per second
+	 */
+	static void report(String name, String unit, double rate) {
+		System.out.printf("%-32s %14.0f %s/s%n", name, rate, unit);
+	}
+}
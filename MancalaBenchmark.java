@@ -0,0 +1,141 @@
+/**
+ * Measures the search throughput of MancalaImp on fixed 
+ * boards, so that runs are reproducible and regressions 
+ * are caught before a new agent is deployed.
+ * 
+ * Usage: java -cp bin MancalaBenchmark [seconds]
+ */
+public class MancalaBenchmark {
+	// Fixed boards: pits 0-5 and store 6 are ours, pits 7-12 and store 13 the opponent's
+	private static final int[][] BOARDS = {
+		{ 4, 4, 4, 4, 4, 4, 0, 4, 4, 4, 4, 4, 4, 0 },
+		{ 2, 0, 7, 5, 1, 6, 9, 3, 0, 6, 2, 1, 4, 2 },
+		{ 0, 1, 0, 2, 0, 1, 20, 1, 0, 0, 3, 1, 0, 19 },
+	};
+	private static final String[] NAMES = { "opening", "midgame", "endgame" };
+	// Depths at which minimax is measured
+	private static final int[] DEPTHS = { 4, 6, 8, 10 };
+	
+	// Consumes results so the JIT cannot remove the measured work
+	private static double sink;
+	
+	/**
+	 * Runs every benchmark and prints its throughput.
+	 * 
+	 * @param args the seconds per benchmark
+	 */
+	public static void main(String[] args) {
+		double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+		MancalaImp agent = new MancalaImp();
+		
+		for (int depth : DEPTHS) {
+			// Warm up, then measure
+			minimax(agent, BOARDS[1], depth, seconds);
+			report("minimax depth " + depth, "nodes", minimax(agent, BOARDS[1], depth, seconds));
+		}
+		
+		evaluateBoard(agent, seconds);
+		report("evaluateBoard", "ops", evaluateBoard(agent, seconds));
+		
+		// Warm up, then compare the search algorithms at equal depth
+		for (MancalaImp.SearchMode mode : MancalaImp.SearchMode.values()) {
+			search(mode, BOARDS[1], false);
+		}
+		
+		for (MancalaImp.SearchMode mode : MancalaImp.SearchMode.values()) {
+			search(mode, BOARDS[1], true);
+		}
+		
+		for (int i = 0; i < BOARDS.length; i++) {
+			long start = System.nanoTime();
+			sink += agent.move(BOARDS[i].clone());
+			System.out.printf("%-32s %14.1f ms%n", "move " + NAMES[i], (System.nanoTime() - start) / 1e6);
+		}
+		
+		if (sink == 42) System.out.println();
+	}
+	
+	/**
+	 * Repeats a minimax search from the board for the given duration.
+	 * The transposition table is cleared before each search, outside
+	 * the time measured, so every search is a full one rather than a
+	 * table hit at the root.
+	 * 
+	 * @param agent the agent searching
+	 * @param board the root board, with us to move
+	 * @param depth the search depth
+	 * @param seconds the duration
+	 * @return the number of nodes searched per second
+	 */
+	private static double minimax(MancalaImp agent, int[] board, int depth, double seconds) {
+		long nodes = agent.getNodeCount();
+		long searching = 0;
+		long finish = System.nanoTime() + (long) (seconds * 1e9);
+		long now;
+		
+		do {
+			agent.reset();
+			long start = System.nanoTime();
+			sink += agent.minimax(board.clone(), depth, true, Integer.MIN_VALUE, Integer.MAX_VALUE);
+			now = System.nanoTime();
+			searching += now - start;
+		} while (now < finish);
+		
+		return (agent.getNodeCount() - nodes) / (searching / 1e9);
+	}
+	
+	/**
+	 * Repeats evaluateBoard over the fixed boards for the given duration.
+	 * 
+	 * @param agent the agent evaluating
+	 * @param seconds the duration
+	 * @return the number of evaluations per second
+	 */
+	private static double evaluateBoard(MancalaImp agent, double seconds) {
+		long ops = 0;
+		long start = System.nanoTime();
+		long finish = start + (long) (seconds * 1e9);
+		long now;
+		
+		do {
+			for (int i = 0; i < 1024; i++) {
+				sink += agent.evaluateBoard(BOARDS[i % BOARDS.length]);
+			}
+			ops += 1024;
+			now = System.nanoTime();
+		} while (now < finish);
+		
+		return ops / ((now - start) / 1e9);
+	}
+	
+	/**
+	 * Searches the board to DEPTH with a fresh agent, so that no search 
+	 * starts from another's transposition table, and prints the nodes 
+	 * searched and the time taken.
+	 * 
+	 * @param mode the search algorithm
+	 * @param board the root board, with us to move
+	 * @param print false to only warm up
+	 */
+	private static void search(MancalaImp.SearchMode mode, int[] board, boolean print) {
+		MancalaImp agent = new MancalaImp();
+		agent.setSearchMode(mode);
+		
+		long start = System.nanoTime();
+		sink += agent.findBestMove(board.clone(), MancalaImp.DEPTH);
+		double millis = (System.nanoTime() - start) / 1e6;
+		
+		if (print) System.out.printf("%-32s %14d nodes %10.1f ms%n", mode + " depth " + MancalaImp.DEPTH, agent.getNodeCount(), millis);
+	}
+	
+	/**
+	 * Prints the throughput of a benchmark.
+	 * 
+	 * @param name the name of the benchmark
+	 * @param unit the unit of work
+	 * @param rate the units per second
+	 */
+	private static void report(String name, String unit, double rate) {
+		System.out.printf("%-32s %14.0f %s/s%n", name, rate, unit);
+	}
+}
@@ -1,161 +1,1184 @@
 
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
 public class MancalaImp implements MancalaAgent {
 	public static final int DEPTH = 10;
+	// Computational time budget per move (ms)
+	public static final int TIME = 500;
+	// Deepest iteration of iterative deepening
+	public static final int MAX_DEPTH = 40;
+	// Longest time spent pondering on the opponent's turn (ms)
+	public static final int PONDER_TIME = 5000;
+	// Evaluation units per seed, making every evaluation weight an integer
+	public static final int SCALE = 20;
+	// Score of a won game, above any evaluation
+	public static final int WIN = 1000000;
+	// Bound beyond any score
+	private static final int INFINITE = WIN + 1;
+	
+	/**
+	 * Search algorithms: fail-soft alpha-beta; principal variation search,
+	 * which proves each move after the first no better with a null window;
+	 * and MTD(f), which converges on the root value with null windows only.
+	 */
+	public enum SearchMode { ALPHA_BETA, PVS, MTDF }
+	
+	// Transposition table size (a power of two)
+	private static final int TABLE_SIZE = 1 << 18;
+	// Transposition table bound types
+	private static final int EXACT = 0;
+	private static final int LOWER = 1;
+	private static final int UPPER = 2;
+	// Marks an occupied transposition table entry
+	private static final int VALID = 1 << 14;
+	// Marks an entry without a best move
+	private static final int NO_MOVE = 15;
+	// Shallowest depth stored in the transposition table
+	private static final int TABLE_DEPTH = 2;
+	
+	// Move ordering priorities, above any history score
+	private static final int ORDER_TABLE = 1 << 30;
+	private static final int ORDER_EXTRA = 1 << 29;
+	private static final int ORDER_CAPTURE = 1 << 28;
+	private static final int ORDER_KILLER = 1 << 26;
+	// History scores are halved once one passes this
+	private static final int HISTORY_LIMIT = 1 << 20;
+	
+	// Most seeds left in the pits of a position in the endgame database
+	public static final int ENDGAME_SEEDS = 10;
+	// Marks an endgame database entry not yet solved
+	private static final byte UNSOLVED = Byte.MIN_VALUE;
+	// Written after the entries of an endgame file once it is solved
+	private static final byte FILE_SOLVED = 0x5A;
+	
+	// Flags of the undo token returned by makeMove
+	private static final int CAPTURE = 1 << 24;
+	private static final int EXTRA = 1 << 25;
+	
+	// The six pits of a packed side, without its store
+	private static final long PITS = 0xFFFFFFFFFFFFL;
+	// Sowing masks from each pit: adding SOW_LOW[i][n] and SOW_HIGH[i][n]
+	// drops one seed in each of the first n pits sown, up to a full lap of
+	// 12, and SOW_LAST[i][n] is the pit the nth seed lands in
+	private static final long[][] SOW_LOW = new long[13][13];
+	private static final long[][] SOW_HIGH = new long[13][13];
+	private static final int[][] SOW_LAST = new int[13][13];
+	// The evaluation is a sum over pits: EVALUATION[i][n] is the part
+	// of pit i holding n seeds
+	private static final int[][] EVALUATION = new int[14][256];
+	
+	static {
+		for (int n = 0; n < 256; n++) {
+			EVALUATION[6][n] = n * SCALE;
+			EVALUATION[13][n] = -n * 15;
+			
+			for (int i = 0; i < 6; i++) {
+				// slightly favour left-most seeds
+				int value = n * (50 - 7 * i);
+				// heavily punish overflow
+				if (n > 6 - i) {
+					value -= SCALE * (10 * n - (6 - i));
+				}
+				
+				EVALUATION[i][n] = value;
+				EVALUATION[i + 7][n] = -value;
+			}
+		}
+		
+		for (int index = 0; index < 13; index++) {
+			if (index == 6) continue;
+			
+			int skip = index < 6 ? 13 : 6;
+			int i = index;
+			
+			for (int n = 1; n <= 12; n++) {
+				do {
+					i = i == 13 ? 0 : i + 1;
+				} while (i == skip || i == index);
+				
+				SOW_LOW[index][n] = SOW_LOW[index][n - 1] + (i < 7 ? 1L << (i << 3) : 0);
+				SOW_HIGH[index][n] = SOW_HIGH[index][n - 1] + (i < 7 ? 0 : 1L << ((i - 7) << 3));
+				SOW_LAST[index][n] = i;
+			}
+		}
+	}
+	
+	// Time at which the current search must stop (System.nanoTime)
+	private long deadline = Long.MAX_VALUE;
+	// Set when the search ran out of time, discarding its results
+	private volatile boolean aborted = false;
+	// Best move found by the last completed root search
+	private int rootMove = 0;
+	
+	// Transposition table: position keys, values, and packed depth, bound, best move and generation
+	private final long[] tableKeys = new long[TABLE_SIZE];
+	private final int[] tableValues = new int[TABLE_SIZE];
+	private final int[] tableData = new int[TABLE_SIZE];
+	// Search generation, so that entries from earlier moves are replaced first
+	private int generation = 0;
+	
+	// Search algorithm used by findBestMove
+	private SearchMode searchMode = SearchMode.ALPHA_BETA;
+	// Number of threads searching root moves in parallel
+	private int threads = 1;
+	// Pool running the parallel root moves (created on first use)
+	private ForkJoinPool pool;
+	// One Searcher per root move that may be searched at once
+	private final Searcher[] searchers = new Searcher[6];
+	// Exact values of positions with few seeds left (set on first search)
+	private Endgame endgame;
+	// Endgame database solved in memory, shared by every agent
+	private static Endgame solvedEndgame;
+	// Whether to search the opponent's replies while they think
+	private boolean ponder = false;
+	// Thread pondering on the opponent's turn
+	private Thread ponderThread;
+	
+	/**
+	 * Default constructor.
+	 */
+	public MancalaImp() {
+		for (int i = 0; i < searchers.length; i++) {
+			searchers[i] = new Searcher();
+		}
+	}
+	
+	/**
+	 * Attaches the endgame database solved in memory, unless 
+	 * one has been attached already.
+	 */
+	private void prepareEndgame() {
+		if (endgame == null) endgame = solvedEndgame();
+	}
+	
+	/**
+	 * Returns the endgame database, solving it on first use.
+	 */
+	private static synchronized Endgame solvedEndgame() {
+		if (solvedEndgame == null) {
+			solvedEndgame = new Endgame(ByteBuffer.allocate(Endgame.size(ENDGAME_SEEDS)), true);
+		}
+		
+		return solvedEndgame;
+	}
+	
+	/**
+	 * Memory-maps the endgame database from the given file, solving it 
+	 * into the file first if the file does not yet hold the database.
+	 * The file is trusted only if it ends with FILE_SOLVED, which is 
+	 * written after the entries are solved and flushed, so a solve that 
+	 * was interrupted is started again. Call before the first search,
+	 * so the database is not also solved in memory. Not for tournament
+	 * use, where file I/O is forbidden.
+	 */
+	public void setEndgameFile(File file) throws IOException {
+		int size = Endgame.size(ENDGAME_SEEDS);
+		
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			boolean solved = false;
+			
+			if (raf.length() == size + 1) {
+				raf.seek(size);
+				solved = raf.readByte() == FILE_SOLVED;
+			}
+			
+			// Drop any stale marker before solving into the file
+			if (!solved) raf.setLength(size);
+			
+			MappedByteBuffer values = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			Endgame database = new Endgame(values, !solved);
+			
+			if (!solved) {
+				values.force();
+				raf.seek(size);
+				raf.writeByte(FILE_SOLVED);
+				raf.getFD().sync();
+			}
+			
+			endgame = database;
+		}
+	}
+	
+	/**
+	 * Sets the number of threads searching in parallel. A value of 1
+	 * (the default) searches on the calling thread, as required by the
+	 * tournament rules.
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+	
+	/**
+	 * Selects the search algorithm, so that they can be compared.
+	 * The default is ALPHA_BETA.
+	 */
+	public void setSearchMode(SearchMode searchMode) {
+		this.searchMode = searchMode;
+	}
+	
+	/**
+	 * Enables pondering: after each move a background thread searches
+	 * the opponent's replies until our next turn, filling the 
+	 * transposition table for the positions they can leave us in.
+	 * Off by default, since the tournament rules forbid threads.
+	 */
+	public void setPonder(boolean ponder) {
+		this.ponder = ponder;
+	}
 
 	@Override
 	public int move(int[] board) {
-		return findBestMove(board);
+		int move = findBestMove(board);
+		if (ponder) startPondering(board, move);
+		return move;
+	}
+	
+	/**
+	 * Starts searching the position after our move with iterative 
+	 * deepening, from the opponent's side, until stopped or until 
+	 * PONDER_TIME has passed. Nothing is pondered if the move ends 
+	 * the game or earns us another move.
+	 */
+	private void startPondering(int[] boardState, int move) {
+		final int[] board = boardState.clone();
+		
+		if ((makeMove(move, board) & EXTRA) != 0 || gameOver(board)) return;
+		
+		deadline = System.nanoTime() + PONDER_TIME * 1000000L;
+		
+		ponderThread = new Thread(new Runnable() {
+			public void run() {
+				for (int depth = 1; depth <= MAX_DEPTH && !aborted; depth++) {
+					int score = searchers[0].minimax(board, depth, false, -INFINITE, INFINITE);
+					if (Math.abs(score) >= WIN) break;
+				}
+			}
+		});
+		ponderThread.setDaemon(true);
+		ponderThread.start();
 	}
 	
+	/**
+	 * Stops pondering, keeping what it stored in the transposition table.
+	 */
+	private void stopPondering() {
+		if (ponderThread == null) return;
+		
+		aborted = true;
+		
+		try {
+			ponderThread.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+		ponderThread = null;
+		aborted = false;
+		deadline = Long.MAX_VALUE;
+	}
+	
+	/**
+	 * Iterative deepening within the TIME budget. Returns the best move
+	 * of the deepest iteration that completed before the clock ran out.
+	 */
 	public int findBestMove(int[] boardState) {
-		int bestMove = 0;
-		double bestScore = Integer.MIN_VALUE;
+		stopPondering();
+		prepareEndgame();
+		deadline = System.nanoTime() + TIME * 1000000L;
+		generation = (generation + 1) & 0xFF;
+		
+		int bestMove = NO_MOVE;
+		int moves = 0;
 		
 		for (int i = 0; i < 6; i++) {
 			if (boardState[i] == 0) continue;
+			if (bestMove == NO_MOVE) bestMove = i;
+			moves++;
+		}
+		
+		int score = 0;
+		
+		// A forced move needs no search
+		for (int depth = 1; depth <= MAX_DEPTH && moves > 1; depth++) {
+			// The previous iteration's best move leads the principal variation,
+			// and the transposition table orders the moves below it
+			score = search(boardState, depth, bestMove, score);
+			if (aborted) break;
 			
-			int[] board = boardState.clone();
+			bestMove = rootMove;
 			
-			boolean extraMove = makePlayerMove(i, board);
+			// Stop once the result is a proven win or loss
+			if (Math.abs(score) >= WIN) break;
+		}
+		
+		aborted = false;
+		deadline = Long.MAX_VALUE;
+		
+		return bestMove == NO_MOVE ? 0 : bestMove;
+	}
+	
+	/**
+	 * Searches every move to a fixed depth, at most MAX_DEPTH, 
+	 * without a time limit.
+	 */
+	public int findBestMove(int[] boardState, int depth) {
+		stopPondering();
+		prepareEndgame();
+		generation = (generation + 1) & 0xFF;
+		search(boardState, Math.min(depth, MAX_DEPTH), NO_MOVE, 0);
+		return rootMove;
+	}
+	
+	/**
+	 * Searches the root to the given depth with the selected algorithm,
+	 * leaving the best move in rootMove. MTD(f) starts from the guess.
+	 */
+	private int search(int[] boardState, int depth, int pvMove, int guess) {
+		if (searchMode == SearchMode.MTDF) return mtdf(boardState, depth, pvMove, guess);
+		return searchRoot(boardState, depth, pvMove, -INFINITE, INFINITE);
+	}
+	
+	/**
+	 * MTD(f): narrows the bounds on the root value with null-window
+	 * searches around the guess, which the transposition table makes 
+	 * cheap to repeat, until they meet.
+	 */
+	private int mtdf(int[] boardState, int depth, int pvMove, int guess) {
+		int lower = -INFINITE;
+		int upper = INFINITE;
+		int bestMove = pvMove;
+		
+		while (lower < upper) {
+			int beta = guess == lower ? guess + 1 : guess;
 			
-			double moveScore = minimax(board, DEPTH, extraMove, Integer.MIN_VALUE, Integer.MAX_VALUE);
+			guess = searchRoot(boardState, depth, bestMove, beta - 1, beta);
+			if (aborted) return guess;
 			
-			if (moveScore > bestScore) {
-				bestScore = moveScore; 
-				bestMove = i;
+			// Only a search failing high proves its move reaches the bound
+			if (guess < beta) {
+				upper = guess;
+			}
+			else {
+				lower = guess;
+				bestMove = rootMove;
 			}
 		}
 		
-		return bestMove;
+		rootMove = bestMove;
+		return guess;
 	}
 	
-	public double evaluateBoard(int[] board) {
-		double sum = board[6] - board[13] * 0.75;
+	/**
+	 * Searches each of our moves to the given depth within the window,
+	 * starting with the given move, and leaves the best one in rootMove.
+	 * 
+	 * With more than one thread this is Young Brothers Wait at the root:
+	 * the first move is searched alone to set alpha, then its younger
+	 * brothers are searched in parallel against that alpha. A brother
+	 * scoring above alpha is exact, so the earliest move with the best
+	 * score is the same move the serial search returns.
+	 */
+	private int searchRoot(int[] boardState, int depth, int pvMove, int alpha, int beta) {
+		// Search the best move remembered for this position first
+		long key = hash(pack(boardState, 0), pack(boardState, 7), true);
+		int slot = (int) key & (TABLE_SIZE - 1);
+		int entry = tableData[slot];
+		boolean found = entry != 0 && (tableKeys[slot] ^ entry ^ (long) tableValues[slot] << 32) == key;
+		int first = pvMove != NO_MOVE ? pvMove : found ? (entry >> 10) & 15 : NO_MOVE;
 		
-		double playerScale = 2.5;
-		double opponentScale = 2.5;
+		// Root moves in search order
+		int[] order = new int[6];
+		int[] scores = new int[6];
+		int moves = 0;
 		
-		for (int i = 0; i < 6; i++) {
-			// slightly favour left-most seeds
-			sum += board[i] * playerScale;
-			// heavily punish overflow
-			if (board[i] > 6 - i) {
-				sum -= 10 * board[i] - (6 - i);
+		for (int k = -1; k < 6; k++) {
+			int i = k < 0 ? first : k;
+			if (k < 0 ? i > 5 : i == first) continue;
+			if (boardState[i] == 0) continue;
+			
+			order[moves++] = i;
+		}
+		
+		int bestMove = 0;
+		int bestScore = -INFINITE;
+		
+		if (threads == 1 || moves < 2) {
+			for (int m = 0; m < moves; m++) {
+				scores[m] = searchers[0].searchMove(boardState, order[m], depth, Math.max(alpha, bestScore), beta, m > 0);
+				if (aborted) return bestScore;
+				
+				if (scores[m] > bestScore) {
+					bestScore = scores[m];
+					bestMove = order[m];
+				}
+				
+				if (bestScore >= beta) break;
+			}
+		}
+		else {
+			scores[0] = searchers[0].searchMove(boardState, order[0], depth, alpha, beta, false);
+			if (aborted) return bestScore;
+			
+			if (scores[0] < beta) {
+				searchBrothers(boardState, order, scores, moves, depth, Math.max(alpha, scores[0]), beta);
+				if (aborted) return bestScore;
+			}
+			else {
+				moves = 1;
+			}
+			
+			for (int m = 0; m < moves; m++) {
+				if (scores[m] > bestScore) {
+					bestScore = scores[m];
+					bestMove = order[m];
+				}
 			}
-			playerScale -= 0.35;
 		}
 		
-		for (int j = 7; j < 13; j++) {
-			// slightly favour left-most seeds
-			sum -= board[j] * opponentScale;
-			// heavily punish overflow
-			if (board[j] > 13 - j) {
-				sum += 10 * board[j] - (13 - j);
+		store(slot, key, depth + 1, bestScore, alpha, beta, bestMove);
+		rootMove = bestMove;
+		
+		return bestScore;
+	}
+	
+	/**
+	 * Searches the root moves after the first in parallel, each with 
+	 * its own Searcher, within a window raised to the first move's score.
+	 */
+	private void searchBrothers(final int[] boardState, final int[] order, final int[] scores, int moves, final int depth, final int alpha, final int beta) {
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		
+		for (int m = 1; m < moves; m++) {
+			final int index = m;
+			
+			tasks.add(new Callable<Integer>() {
+				public Integer call() {
+					return searchers[index].searchMove(boardState, order[index], depth, alpha, beta, true);
+				}
+			});
+		}
+		
+		try {
+			List<Future<Integer>> results = getPool().invokeAll(tasks);
+			
+			for (int m = 1; m < moves; m++) {
+				scores[m] = results.get(m - 1).get();
 			}
-			opponentScale -= 0.35;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			aborted = true;
+		}
+		catch (ExecutionException e) {
+			e.printStackTrace();
+			aborted = true;
+		}
+	}
+	
+	/**
+	 * Returns the pool used for parallel search,
+	 * resizing it if the thread count has changed.
+	 */
+	private ForkJoinPool getPool() {
+		if (pool == null || pool.getParallelism() != threads) {
+			if (pool != null) pool.shutdown();
+			pool = new ForkJoinPool(threads);
+		}
+		
+		return pool;
+	}
+	
+	public double evaluateBoard(int[] board) {
+		return evaluate(pack(board, 0), pack(board, 7)) / (double) SCALE;
+	}
+	
+	/**
+	 * Evaluates a packed board, pits 0-6 in low and 7-13 in high, 
+	 * in units of 1 / SCALE seeds.
+	 */
+	private static int evaluate(long low, long high) {
+		int sum = 0;
+		
+		for (int i = 0; i < 7; i++) {
+			sum += EVALUATION[i][(int) (low >>> (i << 3)) & 0xFF];
+			sum += EVALUATION[i + 7][(int) (high >>> (i << 3)) & 0xFF];
 		}
 		
 		return sum;
 	}
 	
-	public double minimax(int[] boardState, int depth, boolean max, double alpha, double beta) {
-		int[] board;
+	/**
+	 * Packs the seven pits from the given index, one byte each.
+	 */
+	private static long pack(int[] board, int from) {
+		long word = 0;
+		
+		for (int i = 6; i >= 0; i--) {
+			word = word << 8 | board[from + i];
+		}
+		
+		return word;
+	}
+	
+	/**
+	 * Returns the seeds in a packed word, which holds fewer than 256.
+	 */
+	private static int sum(long word) {
+		return (int) ((word * 0x0101010101010101L) >>> 56);
+	}
+	
+	/**
+	 * Alpha-beta search of the given board to at most MAX_DEPTH,
+	 * which is restored before returning.
+	 */
+	public int minimax(int[] boardState, int depth, boolean max, int alpha, int beta) {
+		stopPondering();
+		prepareEndgame();
+		return searchers[0].minimax(boardState, Math.min(depth, MAX_DEPTH), max, alpha, beta);
+	}
+	
+	/**
+	 * The state of one search thread: its board and its counters.
+	 * The transposition table is shared by all Searchers.
+	 */
+	private class Searcher {
+		// Board packed one byte per pit, pits 0-6 in low and 7-13 in high.
+		// Moves are made in place and unmade by restoring both words.
+		private long low;
+		private long high;
+		// Evaluation of the board, updated by each move
+		private int evaluation;
+		// Number of minimax nodes searched
+		private long nodes = 0;
+		private long tableHits = 0;
+		private long tableMisses = 0;
+		
+		// Distance from the first minimax call, indexing the arrays below
+		private int ply = 0;
+		// Ordered moves and their ordering scores at each ply
+		private final int[][] moveLists = new int[MAX_DEPTH + 1][6];
+		private final int[][] moveScores = new int[MAX_DEPTH + 1][6];
+		// Two most recent moves causing a cutoff at each ply
+		private final int[][] killers = new int[MAX_DEPTH + 1][2];
+		// Cutoffs caused by each pit, weighted by depth squared
+		private final int[] history = new int[14];
 		
-		if (gameOver(boardState)) {
-			if (boardState[6] > boardState[13]) return Integer.MAX_VALUE - 1;
-			if (boardState[13] > boardState[3]) return Integer.MIN_VALUE + 1;
-			return 0;
+		private Searcher() {
+			for (int[] k : killers) Arrays.fill(k, NO_MOVE);
+		}
+		
+		/**
+		 * Makes one of our moves on the board and searches it. With PVS 
+		 * a move that is not the first is scouted with a null window
+		 * first, and searched again only if it beats alpha.
+		 */
+		int searchMove(int[] boardState, int index, int depth, int alpha, int beta, boolean scout) {
+			low = pack(boardState, 0);
+			high = pack(boardState, 7);
+			evaluation = evaluate(low, high);
+			ply = 0;
+			
+			boolean extraMove = sow(index);
+			
+			if (scout && searchMode == SearchMode.PVS) {
+				int value = minimax(depth, extraMove, alpha, alpha + 1);
+				if (value <= alpha || value >= beta) return value;
+			}
+			
+			return minimax(depth, extraMove, alpha, beta);
 		}
 		
-		if (depth == 0) {
-			return evaluateBoard(boardState);
+		/**
+		 * Alpha-beta search of the given board.
+		 */
+		int minimax(int[] boardState, int depth, boolean max, int alpha, int beta) {
+			low = pack(boardState, 0);
+			high = pack(boardState, 7);
+			evaluation = evaluate(low, high);
+			ply = 0;
+			
+			return minimax(depth, max, Math.max(alpha, -INFINITE), Math.min(beta, INFINITE));
 		}
 		
-		if (max) {
-			double score = Integer.MIN_VALUE;
+		/**
+		 * Alpha-beta search of the packed board, which is restored before returning.
+		 * With PVS, moves after the first are scouted with a null window.
+		 */
+		private int minimax(int depth, boolean max, int alpha, int beta) {
+			// Check the clock every 1024 nodes
+			if ((++nodes & 1023) == 0 && System.nanoTime() > deadline) aborted = true;
+			if (aborted) return 0;
 			
-			for (int i = 0; i < 6; i++) {
-				if (boardState[i] == 0) continue;
+			int player = sum(low & PITS);
+			int opponent = sum(high & PITS);
+			
+			// Few enough seeds left to look up the result
+			if (player + opponent <= ENDGAME_SEEDS) {
+				int gain = max ? endgame.value(low, high) : -endgame.value(high, low);
+				int margin = (int) (low >>> 48) - (int) (high >>> 48) + gain;
 				
-				board = boardState.clone();
+				if (margin > 0) return WIN;
+				if (margin < 0) return -WIN;
+				return 0;
+			}
+			
+			if (player == 0 || opponent == 0) {
+				// Each player keeps the seeds left on their side
+				player += (int) (low >>> 48);
+				opponent += (int) (high >>> 48);
 				
-				boolean extraMove = makePlayerMove(i, board);
-
-				double moveValue = minimax(board, depth - 1, extraMove, alpha, beta);
+				if (player > opponent) return WIN;
+				if (opponent > player) return -WIN;
+				return 0;
+			}
+			
+			if (depth == 0) {
+				return evaluation;
+			}
+			
+			// Consult the transposition table for a bound and a best move,
+			// except near the leaves where hashing costs more than it saves
+			boolean useTable = depth >= TABLE_DEPTH;
+			long key = useTable ? hash(low, high, max) : 0;
+			int slot = (int) key & (TABLE_SIZE - 1);
+			int first = NO_MOVE;
+			int alphaOrig = alpha;
+			int betaOrig = beta;
+			
+			int entry = useTable ? tableData[slot] : 0;
+			int value = tableValues[slot];
+			
+			// The key is stored XORed with the entry, so that an entry torn 
+			// by another thread's write fails to match rather than misleads
+			if (entry != 0 && (tableKeys[slot] ^ entry ^ (long) value << 32) == key) {
+				first = (entry >> 10) & 15;
+				tableHits++;
 				
-				score = Math.max(score, moveValue);
-				alpha = Math.max(alpha, score);
+				// Only entries of exactly this depth are used, so that the value
+				// of a position never depends on which thread searched it first
+				if ((entry & 0xFF) == depth) {
+					int bound = (entry >> 8) & 3;
+					
+					if (bound == EXACT) return value;
+					if (bound == LOWER) alpha = Math.max(alpha, value);
+					if (bound == UPPER) beta = Math.min(beta, value);
+					if (beta <= alpha) return value;
+				}
+			}
+			else if (useTable) {
+				tableMisses++;
+			}
+			
+			int count = orderMoves(max, first);
+			int[] moves = moveLists[ply];
+			long savedLow = low;
+			long savedHigh = high;
+			int savedEvaluation = evaluation;
+			boolean pvs = searchMode == SearchMode.PVS;
+			
+			if (max) {
+				int score = -INFINITE;
+				int bestMove = NO_MOVE;
+				
+				for (int m = 0; m < count; m++) {
+					int i = moves[m];
+					boolean extraMove = sow(i);
+					
+					ply++;
+					int moveValue;
+					
+					if (pvs && m > 0) {
+						moveValue = minimax(depth - 1, extraMove, alpha, alpha + 1);
+						if (moveValue > alpha && moveValue < beta) moveValue = minimax(depth - 1, extraMove, alpha, beta);
+					}
+					else {
+						moveValue = minimax(depth - 1, extraMove, alpha, beta);
+					}
+					ply--;
+					low = savedLow;
+					high = savedHigh;
+					evaluation = savedEvaluation;
+					if (aborted) return 0;
+					
+					if (moveValue > score) {
+						score = moveValue;
+						bestMove = i;
+					}
+					alpha = Math.max(alpha, score);
+					
+					if (beta <= alpha) {
+						cutoff(i, depth);
+						break;
+					}
+				}
+				
+				if (useTable) store(slot, key, depth, score, alphaOrig, betaOrig, bestMove);
+				return score;
+			}
+			else {
+				int score = INFINITE;
+				int bestMove = NO_MOVE;
+				
+				for (int m = 0; m < count; m++) {
+					int j = moves[m];
+					boolean extraMove = sow(j);
+					
+					ply++;
+					int moveValue;
+					
+					if (pvs && m > 0) {
+						moveValue = minimax(depth - 1, !extraMove, beta - 1, beta);
+						if (moveValue < beta && moveValue > alpha) moveValue = minimax(depth - 1, !extraMove, alpha, beta);
+					}
+					else {
+						moveValue = minimax(depth - 1, !extraMove, alpha, beta);
+					}
+					ply--;
+					low = savedLow;
+					high = savedHigh;
+					evaluation = savedEvaluation;
+					if (aborted) return 0;
+					
+					if (moveValue < score) {
+						score = moveValue;
+						bestMove = j;
+					}
+					beta = Math.min(beta, score);
+					
+					if (beta <= alpha) {
+						cutoff(j, depth);
+						break;
+					}
+				}
+				
+				if (useTable) store(slot, key, depth, score, alphaOrig, betaOrig, bestMove);
+				return score;
+			}		
+		}
+		
+		/**
+		 * Returns the seeds in the given pit.
+		 */
+		private int pit(int i) {
+			return i < 7 ? (int) (low >>> (i << 3)) & 0xFF : (int) (high >>> ((i - 7) << 3)) & 0xFF;
+		}
+		
+		/**
+		 * Adds seeds to the given pit.
+		 */
+		private void add(int i, long seeds) {
+			if (i < 7) low += seeds << (i << 3);
+			else high += seeds << ((i - 7) << 3);
+		}
+		
+		/**
+		 * Sows the seeds of the given pit as makeMove does, but a lap at a
+		 * time: every lap of 12 seeds adds one to each pit sown with a single 
+		 * addition per word. The evaluation is updated for the pits that
+		 * changed. Returns true if the mover moves again.
+		 */
+		private boolean sow(int index) {
+			int seeds = pit(index);
+			int laps = seeds / 12;
+			int rest = seeds % 12;
+			int last = SOW_LAST[index][rest == 0 ? 12 : rest];
+			int store = index < 6 ? 6 : 13;
+			
+			add(index, -seeds);
+			low += laps * SOW_LOW[index][12] + SOW_LOW[index][rest];
+			high += laps * SOW_HIGH[index][12] + SOW_HIGH[index][rest];
+			
+			evaluation += EVALUATION[index][0] - EVALUATION[index][seeds];
+			
+			for (int n = Math.min(seeds, 12); n > 0; n--) {
+				int i = SOW_LAST[index][n];
+				int after = pit(i);
+				int before = after - laps - (n <= rest ? 1 : 0);
+				evaluation += EVALUATION[i][after] - EVALUATION[i][before];
+			}
+			
+			if (last == store) return true;
+			
+			if ((last < 6) == (store == 6) && pit(last) == 1 && pit(12 - last) > 0) {
+				int captured = pit(12 - last);
+				int stored = pit(store);
+				add(12 - last, -captured);
+				add(last, -1);
+				add(store, captured + 1);
 				
-				if (beta <= alpha) break;
+				evaluation += EVALUATION[12 - last][0] - EVALUATION[12 - last][captured]
+						+ EVALUATION[last][0] - EVALUATION[last][1]
+						+ EVALUATION[store][stored + captured + 1] - EVALUATION[store][stored];
 			}
 			
-			return score;
+			return false;
 		}
-		else {
-			double score = Integer.MAX_VALUE;
+		
+		/**
+		 * Fills the move list of this ply with the legal moves of the side 
+		 * to move and returns their number. Moves are ordered by the table 
+		 * move, sowings ending in the store, captures (largest first), the 
+		 * killer moves of this ply, then history.
+		 */
+		private int orderMoves(boolean max, int first) {
+			int[] moves = moveLists[ply];
+			int[] scores = moveScores[ply];
+			int[] killer = killers[ply];
+			int start = max ? 0 : 7;
+			int store = start + 6;
+			int count = 0;
 			
-			for (int j = 7; j < 13; j++) {
-				if (boardState[j] == 0) continue;
+			for (int i = start; i < store; i++) {
+				int seeds = pit(i);
+				if (seeds == 0) continue;
 				
-				board = boardState.clone();
+				int last = SOW_LAST[i][seeds % 12 == 0 ? 12 : seeds % 12];
+				int captured = 0;
+				int score;
 				
-				boolean extraMove = makeOpponentMove(j, board);
+				if (seeds < 12 && last >= start && last < store && pit(last) == 0) {
+					// Going round past both stores drops a seed in the opposite pit too
+					captured = pit(12 - last) + (last < i ? 1 : 0);
+				}
 				
-				double moveValue = minimax(board, depth - 1, !extraMove, alpha, beta);
+				if (i == first) {
+					score = ORDER_TABLE;
+				}
+				else if (last == store) {
+					score = ORDER_EXTRA;
+				}
+				else if (captured > 0) {
+					score = ORDER_CAPTURE + captured + 1;
+				}
+				else if (i == killer[0]) {
+					score = ORDER_KILLER + 1;
+				}
+				else if (i == killer[1]) {
+					score = ORDER_KILLER;
+				}
+				else {
+					score = history[i];
+				}
 				
-				score = Math.min(score, moveValue);
-				beta = Math.min(beta, score);
+				// Insertion sort, keeping pit order among equal scores
+				int m = count++;
 				
-				if (beta <= alpha) break;
+				for (; m > 0 && scores[m - 1] < score; m--) {
+					moves[m] = moves[m - 1];
+					scores[m] = scores[m - 1];
+				}
+				
+				moves[m] = i;
+				scores[m] = score;
+			}
+			
+			return count;
+		}
+		
+		/**
+		 * Records a move that caused a cutoff as a killer of this ply
+		 * and credits it in the history table.
+		 */
+		private void cutoff(int move, int depth) {
+			int[] killer = killers[ply];
+			
+			if (killer[0] != move) {
+				killer[1] = killer[0];
+				killer[0] = move;
+			}
+			
+			history[move] += depth * depth;
+			
+			if (history[move] > HISTORY_LIMIT) {
+				for (int i = 0; i < 14; i++) history[i] >>= 1;
 			}
-			return score;
-		}		
+		}
 	}
 	
 	/**
-	 * Code pinched from Mancala.java
+	 * Endgame database of every position with at most ENDGAME_SEEDS seeds
+	 * in the pits, solved backwards from the end of the game. Seeds never
+	 * leave a store, so a position only leads to positions with fewer 
+	 * seeds, or to the same seeds moved closer to their stores. 
+	 * 
+	 * Each entry is the most the side to move can gain over the other side
+	 * from the seeds still in the pits, as a signed byte. Positions are
+	 * seen from the side to move, and indexed by the combinatorial rank of 
+	 * their twelve pits: by number of seeds, then lexicographically.
 	 */
-	public boolean makePlayerMove(int index, int[] board) {
-		int i = index;
+	private static class Endgame {
+		// binomial[n][k] = n choose k
+		private final int[][] binomial = new int[ENDGAME_SEEDS + 13][13];
+		// Entry of each position by rank
+		private final ByteBuffer values;
+		
+		/**
+		 * Wraps a buffer of size(ENDGAME_SEEDS) entries, solving
+		 * every position into it first if asked.
+		 */
+		Endgame(ByteBuffer values, boolean solve) {
+			this.values = values;
+			
+			for (int n = 0; n < binomial.length; n++) {
+				binomial[n][0] = 1;
+				
+				for (int k = 1; k <= Math.min(n, 12); k++) {
+					binomial[n][k] = binomial[n - 1][k - 1] + (k < n ? binomial[n - 1][k] : 0);
+				}
+			}
+			
+			if (!solve) return;
+			
+			for (int i = 0; i < values.capacity(); i++) {
+				values.put(i, UNSOLVED);
+			}
+			
+			for (int seeds = 0; seeds <= ENDGAME_SEEDS; seeds++) {
+				solveAll(new int[14], 0, seeds);
+			}
+		}
+		
+		/**
+		 * Returns the number of positions with at most the given seeds in the pits.
+		 */
+		static int size(int seeds) {
+			long size = 1;
+			
+			// (seeds + 12) choose 12
+			for (int k = 1; k <= 12; k++) {
+				size = size * (seeds + k) / k;
+			}
+			
+			return (int) size;
+		}
 		
-		while (board[index] > 0) {
-			i = i == 12 ? 0 : i + 1;
-			board[i]++; board[index]--;
+		/**
+		 * Returns the most the side to move can gain over the other side
+		 * from the seeds in the pits, given the packed sides of the side
+		 * to move and of the other side. Stores are ignored.
+		 */
+		int value(long own, long other) {
+			return values.get(rank(own, other));
 		}
-	       
-		if(i < 6 && board[i] == 1 && board[12 - i] > 0) {
-	         board[6] += board[12 - i]; 
-	         board[12 - i] = 0;
-	         board[6] += board[i];
-	         board[i] = 0;
-	       }
 		
-		if (i != 6) return false;
-		return true;
+		/**
+		 * Returns the rank of the pits of the packed sides: the positions 
+		 * with fewer seeds, plus those with the same seeds that come first
+		 * pit by pit.
+		 */
+		private int rank(long own, long other) {
+			int remaining = sum(own & PITS) + sum(other & PITS);
+			int rank = binomial[remaining + 11][12];
+			
+			for (int k = 0; k < 11; k++) {
+				int pit = (int) ((k < 6 ? own >>> (k << 3) : other >>> ((k - 6) << 3)) & 0xFF);
+				int m = 11 - k;
+				
+				// Positions with fewer seeds in this pit and the same before it
+				rank += binomial[remaining + m][m] - binomial[remaining - pit + m][m];
+				remaining -= pit;
+			}
+			
+			return rank;
+		}
+		
+		/**
+		 * Solves every position with the given seeds left to distribute 
+		 * over the pits from the given one.
+		 */
+		private void solveAll(int[] board, int pit, int seeds) {
+			if (pit == 11) {
+				board[12] = seeds;
+				solve(board);
+				board[12] = 0;
+				return;
+			}
+			
+			// Skip our store
+			int i = pit < 6 ? pit : pit + 1;
+			
+			for (int n = 0; n <= seeds; n++) {
+				board[i] = n;
+				solveAll(board, pit + 1, seeds - n);
+			}
+			
+			board[i] = 0;
+		}
+		
+		/**
+		 * Returns the entry of a position seen from the side to move, with
+		 * empty stores, solving it and the positions it leads to if needed.
+		 */
+		private int solve(int[] board) {
+			int rank = rank(pack(board, 0), pack(board, 7));
+			int value = values.get(rank);
+			if (value != UNSOLVED) return value;
+			
+			int own = 0;
+			int other = 0;
+			
+			for (int i = 0; i < 6; i++) {
+				own += board[i];
+				other += board[i + 7];
+			}
+			
+			if (own == 0 || other == 0) {
+				// Each side keeps the seeds left on their side
+				value = own - other;
+			}
+			else {
+				value = Integer.MIN_VALUE;
+				
+				for (int i = 0; i < 6; i++) {
+					if (board[i] == 0) continue;
+					
+					int move = makeMove(i, board);
+					int gain = board[6];
+					board[6] = 0;
+					
+					if ((move & EXTRA) != 0) {
+						value = Math.max(value, gain + solve(board));
+					}
+					else {
+						// The other side moves next, so swap the sides
+						swap(board);
+						value = Math.max(value, gain - solve(board));
+						swap(board);
+					}
+					
+					board[6] = gain;
+					unmakeMove(move, board);
+				}
+			}
+			
+			values.put(rank, (byte) value);
+			return value;
+		}
+		
+		/**
+		 * Swaps the two sides of the board in place.
+		 */
+		private void swap(int[] board) {
+			for (int i = 0; i < 7; i++) {
+				int seeds = board[i];
+				board[i] = board[i + 7];
+				board[i + 7] = seeds;
+			}
+		}
 	}
 	
 	/**
-	 * Code pinched from Mancala.java
+	 * Stores a search result in the transposition table, replacing
+	 * empty, stale or shallower entries.
 	 */
-	public boolean makeOpponentMove(int index, int[] board) {
+	private void store(int slot, long key, int depth, int score, int alpha, int beta, int bestMove) {
+		int entry = tableData[slot];
+		boolean same = (tableKeys[slot] ^ entry ^ (long) tableValues[slot] << 32) == key;
+		
+		if (entry == 0 || same || (entry >> 16) != generation || (entry & 0xFF) <= depth) {
+			int bound = score <= alpha ? UPPER : score >= beta ? LOWER : EXACT;
+			int data = depth | bound << 8 | bestMove << 10 | VALID | generation << 16;
+			tableKeys[slot] = key ^ data ^ (long) score << 32;
+			tableValues[slot] = score;
+			tableData[slot] = data;
+		}
+	}
+	
+	/**
+	 * Hashes a packed board and the side to move, mixing the two words
+	 * with the splitmix64 finaliser.
+	 */
+	private static long hash(long low, long high, boolean max) {
+		long key = low * 0x9E3779B97F4A7C15L + high + (max ? 1 : 0);
+		
+		key = (key ^ (key >>> 30)) * 0xBF58476D1CE4E5B9L;
+		key = (key ^ (key >>> 27)) * 0x94D049BB133111EBL;
+		return key ^ (key >>> 31);
+	}
+	
+	/**
+	 * Sows the seeds of the given pit in place, skipping the opponent's
+	 * store and the pit itself, and captures if the last seed lands in an
+	 * empty pit on the mover's side. Returns an undo token for unmakeMove:
+	 * the pit (bits 0-3), the last pit sown (4-7), the seeds sown (8-15)
+	 * and the seeds captured (16-23), with the CAPTURE and EXTRA flags.
+	 */
+	public static int makeMove(int index, int[] board) {
+		int store = index < 6 ? 6 : 13;
+		int skip = 19 - store;
+		int seeds = board[index];
 		int i = index;
 		
-		while (board[index] > 0) {
-			i = i == 5 ? 7 : i == 13 ? 0 : i + 1;
-			board[i]++; board[index]--;
+		board[index] = 0;
+		
+		for (int n = seeds; n > 0; ) {
+			i = i == 13 ? 0 : i + 1;
+			if (i == skip || i == index) continue;
+			board[i]++; n--;
 		}
-	       
-		if(i < 13 && i > 6 && board[i] == 1 && board[12 - i] > 0) {
-	         board[13] += board[12 - i]; 
-	         board[12 - i] = 0;
-	         board[13] += board[i];
-	         board[i] = 0;
-	       }
 		
-		if (i != 13) return false;
-		return true;
+		int move = index | i << 4 | seeds << 8;
+		
+		if (i != store && (i < 6) == (store == 6) && board[i] == 1 && board[12 - i] > 0) {
+			move |= board[12 - i] << 16 | CAPTURE;
+			board[store] += board[12 - i] + 1;
+			board[12 - i] = 0;
+			board[i] = 0;
+		}
+		
+		if (i == store) move |= EXTRA;
+		return move;
+	}
+	
+	/**
+	 * Reverts a move made by makeMove.
+	 */
+	public static void unmakeMove(int move, int[] board) {
+		int index = move & 15;
+		int i = (move >> 4) & 15;
+		int seeds = (move >> 8) & 0xFF;
+		int store = index < 6 ? 6 : 13;
+		int skip = 19 - store;
+		
+		if ((move & CAPTURE) != 0) {
+			int captured = (move >> 16) & 0xFF;
+			board[store] -= captured + 1;
+			board[12 - i] = captured;
+			board[i] = 1;
+		}
+		
+		for (int n = seeds; n > 0; i = i == 0 ? 13 : i - 1) {
+			if (i == skip || i == index) continue;
+			board[i]--; n--;
+		}
+		
+		board[index] = seeds;
+	}
+	
+	public boolean makePlayerMove(int index, int[] board) {
+		return (makeMove(index, board) & EXTRA) != 0;
+	}
+	
+	public boolean makeOpponentMove(int index, int[] board) {
+		return (makeMove(index, board) & EXTRA) != 0;
 	}
 	
+	/**
+	 * Returns true if either side has no seeds left. The board is not changed.
+	 */
 	public boolean gameOver(int[] board) {
 		boolean noPlayerMoves = true;
 		boolean noAgentMoves = true;
@@ -174,21 +1197,36 @@ public class MancalaImp implements MancalaAgent {
 			}
 		}
 		
-		if (noPlayerMoves) {
-			for (int j = 7; j < 13; j++) {
-				board[13] += board[j];
-			}
-		}
-		
-		if (noAgentMoves) {
-			for (int i = 0; i < 6; i++) {
-				board[6] += board[i];
-			}
-		}
-		
 		return (noPlayerMoves || noAgentMoves);
 	}
 
+	/**
+	 * Returns the number of minimax nodes searched by this agent.
+	 */
+	public long getNodeCount() {
+		long nodes = 0;
+		for (Searcher s : searchers) nodes += s.nodes;
+		return nodes;
+	}
+	
+	/**
+	 * Returns the number of transposition table probes that found their position.
+	 */
+	public long getTableHits() {
+		long hits = 0;
+		for (Searcher s : searchers) hits += s.tableHits;
+		return hits;
+	}
+	
+	/**
+	 * Returns the number of transposition table probes that missed.
+	 */
+	public long getTableMisses() {
+		long misses = 0;
+		for (Searcher s : searchers) misses += s.tableMisses;
+		return misses;
+	}
+
 	@Override
 	public String name() {
 		return "The MANcala Agent";
@@ -196,7 +1234,14 @@ public class MancalaImp implements MancalaAgent {
 
 	@Override
 	public void reset() {
-		// TODO Auto-generated method stub
+		stopPondering();
+		Arrays.fill(tableData, 0);
 		
+		for (Searcher s : searchers) {
+			s.tableHits = 0;
+			s.tableMisses = 0;
+			Arrays.fill(s.history, 0);
+			for (int[] k : s.killers) Arrays.fill(k, NO_MOVE);
+		}
 	}
 }